@@ -0,0 +1,666 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  http://opensource.org/licenses/bsd-license.php.
+
+  Copyright (c) 2010 Brian M. Clapper
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the names "clapper.org", "Java EditLine", nor the names of its
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+  POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+package org.clapper.editline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+
+/**
+ * <p>A compact history store, for very large histories. Entries are kept,
+ * UTF-8 encoded, in a single arena that lives outside the Java heap: either
+ * a direct buffer or a memory-mapped file. Each entry is stored as the
+ * length of the prefix it shares with the previous entry, followed by the
+ * remaining bytes, so runs of similar commands cost little more than their
+ * differences. Every 16th entry is stored in full, which bounds the work
+ * needed to decode an arbitrary entry.</p>
+ *
+ * <p>A <tt>CompactHistory</tt> is attached to an <tt>EditLine</tt> instance
+ * via <tt>EditLine.setHistoryStore()</tt>. The store then holds the full
+ * history, and the Editline library is only fed the most recent entries,
+ * for up/down navigation. Full-history operations, such as
+ * <tt>EditLine.getHistory()</tt> and <tt>EditLine.saveHistory()</tt>, are
+ * served from the store, without any JNI calls.</p>
+ *
+ * <p>A store backed by a file (see {@link #mapped}) persists across runs;
+ * reopening the file restores the history. A history file has a single
+ * writer: the store holds an exclusive lock on the file until it is
+ * closed, and a second attempt to open the same file fails. Space freed
+ * by evicted entries is only reclaimed by copying the live entries to a
+ * region that doesn't overlap them, and the header is switched over to
+ * the copy afterwards, so a crash mid-way leaves the old entries
+ * intact.</p>
+ */
+public class CompactHistory
+{
+    /*----------------------------------------------------------------------*\
+                            Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x4a454c48; // "JELH"
+    private static final int FORMAT_VERSION = 1;
+
+    /* Header layout: magic, version, count, skip, base, end. */
+    private static final int HEADER_SIZE = 24;
+    private static final int HDR_COUNT = 8;
+    private static final int HDR_SKIP = 12;
+    private static final int HDR_BASE = 16;
+    private static final int HDR_END = 20;
+
+    /* Every RESTART_INTERVAL'th entry is stored without prefix sharing. */
+    private static final int RESTART_INTERVAL = 16;
+
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /*----------------------------------------------------------------------*\
+                            Instance Variables
+    \*----------------------------------------------------------------------*/
+
+    private ByteBuffer arena;
+    private final FileChannel channel;
+
+    /* Number of live entries. */
+    private int count = 0;
+
+    /* Number of dead entries at the front of the first block. */
+    private int skip = 0;
+
+    /* Offset of the first live block, and of the end of the data. */
+    private int base = HEADER_SIZE;
+    private int end = HEADER_SIZE;
+
+    /* Offsets of the live blocks, starting at blockOffsets[firstBlock]. */
+    private int[] blockOffsets = new int[64];
+    private int firstBlock = 0;
+    private int totalBlocks = 0;
+
+    /* The most recently added entry, for prefix sharing. */
+    private byte[] last = new byte[0];
+
+    private int maxEntries = Integer.MAX_VALUE;
+
+    /* Scratch buffer for decoding. */
+    private byte[] scratch = new byte[256];
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    private CompactHistory(ByteBuffer arena, FileChannel channel)
+    {
+        this.arena = arena;
+        this.channel = channel;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Static Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create an empty history store in a direct (off-heap) buffer. The
+     * buffer grows as necessary.
+     *
+     * @return the new store
+     */
+    public static CompactHistory offHeap()
+    {
+        return offHeap(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty history store in a direct (off-heap) buffer. The
+     * buffer grows as necessary.
+     *
+     * @param initialCapacity  the initial size of the buffer, in bytes
+     *
+     * @return the new store
+     */
+    public static CompactHistory offHeap(int initialCapacity)
+    {
+        int size = Math.max(initialCapacity, HEADER_SIZE + 64);
+        CompactHistory h = new CompactHistory(ByteBuffer.allocateDirect(size),
+                                              null);
+        h.writeHeader();
+        return h;
+    }
+
+    /**
+     * Open (or create) a history store backed by a memory-mapped file. If
+     * the file already contains a history store, its contents are
+     * restored. The file grows as necessary.
+     *
+     * @param f  the file
+     *
+     * @return the store
+     *
+     * @throws IOException  if the file cannot be opened or mapped, if it
+     *                      exists but isn't a history store, or if it is
+     *                      already open in another store
+     */
+    public static CompactHistory mapped(File f)
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        FileChannel ch = raf.getChannel();
+        boolean ok = false;
+
+        try
+        {
+            FileLock lock = null;
+            try
+            {
+                lock = ch.tryLock();
+            }
+
+            catch (OverlappingFileLockException ex)
+            {
+                // Already locked within this JVM.
+                lock = null;
+            }
+
+            if (lock == null)
+                throw new IOException(f.getPath() + " is in use by another " +
+                                      "history store.");
+
+            long size = ch.size();
+            boolean existing = (size >= HEADER_SIZE);
+            if (! existing)
+                size = DEFAULT_CAPACITY;
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(f.getPath() + " is too large.");
+
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE,
+                                          0, size);
+            CompactHistory h = new CompactHistory(buf, ch);
+            if (existing)
+                h.restore(f);
+            else
+                h.writeHeader();
+
+            ok = true;
+            return h;
+        }
+
+        finally
+        {
+            if (! ok)
+                raf.close();
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the number of entries in the store.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size()
+    {
+        return count;
+    }
+
+    /**
+     * Get the maximum number of entries the store will hold. Once the
+     * store is full, adding an entry discards the oldest one.
+     *
+     * @return the maximum number of entries
+     */
+    public synchronized int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    /**
+     * Set the maximum number of entries the store will hold. If the store
+     * currently holds more entries, the oldest ones are discarded.
+     *
+     * @param max  the new maximum. Must not be negative.
+     */
+    public synchronized void setMaxEntries(int max)
+    {
+        assert(max >= 0);
+        maxEntries = max;
+        while (count > maxEntries)
+            evictOldest();
+        writeHeader();
+    }
+
+    /**
+     * Add an entry to the end of the store, discarding the oldest entry if
+     * the store is full.
+     *
+     * @param line  the entry to add. Must not be null.
+     *
+     * @return true if the entry was added, false if the store holds no
+     *         entries at all (i.e., its maximum is 0)
+     */
+    public synchronized boolean add(String line)
+    {
+        if (maxEntries == 0)
+            return false;
+
+        byte[] bytes = line.getBytes(UTF8);
+        int physical = skip + count;
+        boolean restart = (physical % RESTART_INTERVAL) == 0;
+
+        int shared = 0;
+        if (! restart)
+        {
+            int n = Math.min(bytes.length, last.length);
+            while ((shared < n) && (bytes[shared] == last[shared]))
+                shared++;
+        }
+
+        int suffix = bytes.length - shared;
+        ensureSpace(varIntSize(shared) + varIntSize(suffix) + suffix);
+
+        if (restart)
+            addBlock(end);
+
+        arena.position(end);
+        putVarInt(shared);
+        putVarInt(suffix);
+        arena.put(bytes, shared, suffix);
+        end = arena.position();
+
+        last = bytes;
+        count++;
+        while (count > maxEntries)
+            evictOldest();
+
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * Get the most recently added entry.
+     *
+     * @return the entry, or null if the store is empty
+     */
+    public synchronized String last()
+    {
+        return (count == 0) ? null : new String(last, UTF8);
+    }
+
+    /**
+     * Get one entry.
+     *
+     * @param index  the index of the entry, where 0 is the oldest entry
+     *
+     * @return the entry
+     *
+     * @throws IndexOutOfBoundsException  if the index is out of range
+     */
+    public synchronized String get(int index)
+    {
+        return get(index, 1)[0];
+    }
+
+    /**
+     * Get a range of entries, oldest first. The range is decoded in a
+     * single pass.
+     *
+     * @param fromIndex  the index of the first entry, where 0 is the oldest
+     * @param total      the number of entries to get
+     *
+     * @return the entries
+     *
+     * @throws IndexOutOfBoundsException  if the range is out of bounds
+     */
+    public synchronized String[] get(int fromIndex, int total)
+    {
+        if ((fromIndex < 0) || (total < 0) || (fromIndex + total > count))
+        {
+            throw new IndexOutOfBoundsException("range " + fromIndex + "+" +
+                                                total + ", size " + count);
+        }
+
+        String[] result = new String[total];
+        if (total == 0)
+            return result;
+
+        int physical = skip + fromIndex;
+        int block = physical / RESTART_INTERVAL;
+        ByteBuffer in = arena.duplicate();
+        in.position(blockOffsets[firstBlock + block]);
+
+        // Decode (without materializing) the entries leading up to the
+        // first one in the range.
+        int len = 0;
+        for (int i = physical % RESTART_INTERVAL; i > 0; i--)
+            len = decode(in, len);
+
+        for (int i = 0; i < total; i++)
+        {
+            len = decode(in, len);
+            result[i] = new String(scratch, 0, len, UTF8);
+        }
+
+        return result;
+    }
+
+    /**
+     * Get all the entries, oldest first.
+     *
+     * @return the entries. Never null.
+     */
+    public synchronized String[] toArray()
+    {
+        return get(0, count);
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear()
+    {
+        count = 0;
+        skip = 0;
+        base = HEADER_SIZE;
+        end = HEADER_SIZE;
+        firstBlock = 0;
+        totalBlocks = 0;
+        last = new byte[0];
+        writeHeader();
+    }
+
+    /**
+     * Flush the store and release the underlying file (and its lock), if
+     * there is one. The store must not be used after this call.
+     *
+     * @throws IOException  on error
+     */
+    public synchronized void close()
+        throws IOException
+    {
+        if (channel != null)
+        {
+            ((MappedByteBuffer) arena).force();
+            channel.close();
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Decode the next entry from the buffer into the scratch buffer,
+     * given the length of the previous entry (which is still in the
+     * scratch buffer). Returns the length of the decoded entry.
+     */
+    private int decode(ByteBuffer in, int prevLen)
+    {
+        int shared = getVarInt(in);
+        int suffix = getVarInt(in);
+        assert(shared <= prevLen);
+
+        int len = shared + suffix;
+        if (len > scratch.length)
+        {
+            byte[] b = new byte[Math.max(len, scratch.length * 2)];
+            System.arraycopy(scratch, 0, b, 0, shared);
+            scratch = b;
+        }
+
+        in.get(scratch, shared, suffix);
+        return len;
+    }
+
+    private void evictOldest()
+    {
+        count--;
+        skip++;
+        if (skip == RESTART_INTERVAL)
+        {
+            // The entire first block is dead. Drop it.
+            skip = 0;
+            firstBlock++;
+            totalBlocks--;
+            base = (totalBlocks > 0) ? blockOffsets[firstBlock] : end;
+        }
+
+        if (count == 0)
+            clear();
+    }
+
+    private void addBlock(int offset)
+    {
+        if (firstBlock + totalBlocks == blockOffsets.length)
+        {
+            int[] b = blockOffsets;
+            if (totalBlocks * 2 > blockOffsets.length)
+                b = new int[blockOffsets.length * 2];
+            System.arraycopy(blockOffsets, firstBlock, b, 0, totalBlocks);
+            blockOffsets = b;
+            firstBlock = 0;
+        }
+
+        blockOffsets[firstBlock + totalBlocks] = offset;
+        totalBlocks++;
+    }
+
+    /**
+     * Make sure there's room for another <tt>needed</tt> bytes at the end
+     * of the arena. Space freed by evicted entries is reclaimed, if there's
+     * at least as much of it as there is live data; otherwise, the arena
+     * grows.
+     */
+    private void ensureSpace(int needed)
+    {
+        int capacity = arena.capacity();
+        if (end + needed <= capacity)
+            return;
+
+        int live = end - base;
+        int dead = base - HEADER_SIZE;
+        if ((dead >= live) && (HEADER_SIZE + live + needed <= capacity))
+        {
+            compact();
+            return;
+        }
+
+        long newSize = (long) capacity * 2;
+        while (newSize < (long) end + needed)
+            newSize *= 2;
+        if (newSize > Integer.MAX_VALUE)
+            newSize = Integer.MAX_VALUE;
+        if ((long) end + needed > newSize)
+            throw new IllegalStateException("History store is full.");
+
+        grow((int) newSize);
+        if (dead >= live)
+            compact();
+    }
+
+    /**
+     * Copy the live data down to the start of the arena. Only called when
+     * the copy doesn't overlap the live data, so the entries the header
+     * points to stay intact until the header is switched to the copy.
+     */
+    private void compact()
+    {
+        int delta = base - HEADER_SIZE;
+        if (delta == 0)
+            return;
+
+        assert(HEADER_SIZE + (end - base) <= base);
+
+        ByteBuffer src = arena.duplicate();
+        src.limit(end).position(base);
+        ByteBuffer dst = arena.duplicate();
+        dst.position(HEADER_SIZE);
+        dst.put(src.slice());
+        if (channel != null)
+            ((MappedByteBuffer) arena).force();
+
+        for (int i = 0; i < totalBlocks; i++)
+            blockOffsets[firstBlock + i] -= delta;
+        base -= delta;
+        end -= delta;
+        writeHeader();
+    }
+
+    private void grow(int newSize)
+    {
+        if (channel == null)
+        {
+            ByteBuffer b = ByteBuffer.allocateDirect(newSize);
+            ByteBuffer src = arena.duplicate();
+            src.limit(end).position(0);
+            b.put(src);
+            arena = b;
+        }
+
+        else
+        {
+            try
+            {
+                ((MappedByteBuffer) arena).force();
+                arena = channel.map(FileChannel.MapMode.READ_WRITE,
+                                    0, newSize);
+            }
+
+            catch (IOException ex)
+            {
+                throw new IllegalStateException("Can't grow history file: " +
+                                                ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Write the header. The base and end offsets are written together, in
+     * a single 8-byte store, so that they can't be seen out of step.
+     */
+    private void writeHeader()
+    {
+        arena.putInt(0, MAGIC);
+        arena.putInt(4, FORMAT_VERSION);
+        arena.putInt(HDR_COUNT, count);
+        arena.putInt(HDR_SKIP, skip);
+        arena.putLong(HDR_BASE, ((long) base << 32) | (end & 0xffffffffL));
+    }
+
+    /**
+     * Restore the in-memory state (block offsets and last entry) from an
+     * existing arena, by scanning the live entries.
+     */
+    private void restore(File f)
+        throws IOException
+    {
+        if ((arena.getInt(0) != MAGIC) ||
+            (arena.getInt(4) != FORMAT_VERSION))
+            throw new IOException(f.getPath() + " is not a history store.");
+
+        int n = arena.getInt(HDR_COUNT);
+        int s = arena.getInt(HDR_SKIP);
+        int b = arena.getInt(HDR_BASE);
+        int e = arena.getInt(HDR_END);
+        if ((n < 0) || (s < 0) || (s >= RESTART_INTERVAL) ||
+            (b < HEADER_SIZE) || (e < b) || (e > arena.capacity()))
+            throw new IOException(f.getPath() + " is corrupt.");
+
+        ByteBuffer in = arena.duplicate();
+        in.position(b);
+        int len = 0;
+        for (int i = 0; i < s + n; i++)
+        {
+            if ((i % RESTART_INTERVAL) == 0)
+                addBlock(in.position());
+            len = decode(in, len);
+        }
+
+        if (in.position() != e)
+            throw new IOException(f.getPath() + " is corrupt.");
+
+        count = n;
+        skip = s;
+        base = b;
+        end = e;
+        last = new byte[len];
+        System.arraycopy(scratch, 0, last, 0, len);
+    }
+
+    private void putVarInt(int value)
+    {
+        while ((value & ~0x7f) != 0)
+        {
+            arena.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+
+        arena.put((byte) value);
+    }
+
+    private static int getVarInt(ByteBuffer in)
+    {
+        int result = 0;
+        int shift = 0;
+        byte b;
+        do
+        {
+            b = in.get();
+            result |= (b & 0x7f) << shift;
+            shift += 7;
+        }
+        while ((b & 0x80) != 0);
+
+        return result;
+    }
+
+    private static int varIntSize(int value)
+    {
+        int size = 1;
+        while ((value & ~0x7f) != 0)
+        {
+            size++;
+            value >>>= 7;
+        }
+
+        return size;
+    }
+}
@@ -0,0 +1,193 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  http://opensource.org/licenses/bsd-license.php.
+
+  Copyright (c) 2010 Brian M. Clapper
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the names "clapper.org", "Java EditLine", nor the names of its
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+  POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.editline;
+
+/**
+ * <p>A {@link EditLine.ContinuationDetector} for SQL-like languages, in
+ * which a statement ends with a terminator character (";" by default).
+ * A statement is complete when the last significant character of a line
+ * is the terminator. The terminator doesn't count inside single- or
+ * double-quoted strings, inside <tt>/* ... *&#47;</tt> comments, or after
+ * <tt>--</tt> on a line; quoted strings and block comments may span
+ * lines. A first line holding nothing but whitespace and comments is a
+ * complete (empty) statement.</p>
+ *
+ * <p>Each line is scanned once. The state carried from one line to the
+ * next is just the open quote or comment, if any, and whether the last
+ * significant character seen was the terminator.</p>
+ *
+ * <blockquote><pre>
+ * el.setContinuationDetector(new DelimiterContinuationDetector());
+ * String statement;
+ * while ((statement = el.getStatement()) != null)
+ * {
+ *     el.addToHistory(statement);
+ *     // ...
+ * }
+ * </pre></blockquote>
+ */
+public class DelimiterContinuationDetector
+    implements EditLine.ContinuationDetector
+{
+    /*----------------------------------------------------------------------*\
+                            Constants
+    \*----------------------------------------------------------------------*/
+
+    /* Scanner states carried between lines. */
+    private static final int CODE = 0;
+    private static final int SINGLE_QUOTE = 1;
+    private static final int DOUBLE_QUOTE = 2;
+    private static final int BLOCK_COMMENT = 3;
+
+    /*----------------------------------------------------------------------*\
+                            Instance Variables
+    \*----------------------------------------------------------------------*/
+
+    private final char terminator;
+    private int state = CODE;
+    private boolean terminated = false;
+    private boolean empty = true;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create a detector for statements terminated by ";".
+     */
+    public DelimiterContinuationDetector()
+    {
+        this(';');
+    }
+
+    /**
+     * Create a detector for statements terminated by a given character.
+     *
+     * @param terminator  the terminator
+     */
+    public DelimiterContinuationDetector(char terminator)
+    {
+        this.terminator = terminator;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Start a new statement.
+     */
+    public void reset()
+    {
+        state = CODE;
+        terminated = false;
+        empty = true;
+    }
+
+    /**
+     * Scan the next line of the statement.
+     *
+     * @param line  the line, without its trailing newline
+     *
+     * @return true if the statement is complete, false if it needs more
+     *         lines
+     */
+    public boolean addLine(String line)
+    {
+        int len = line.length();
+
+        for (int i = 0; i < len; i++)
+        {
+            char c = line.charAt(i);
+            char next = (i + 1 < len) ? line.charAt(i + 1) : 0;
+
+            switch (state)
+            {
+                case SINGLE_QUOTE:
+                case DOUBLE_QUOTE:
+                    char quote = (state == SINGLE_QUOTE) ? '\'' : '"';
+                    if (c == quote)
+                    {
+                        // A doubled quote is an escaped quote.
+                        if (next == quote)
+                            i++;
+                        else
+                            state = CODE;
+                    }
+                    break;
+
+                case BLOCK_COMMENT:
+                    if ((c == '*') && (next == '/'))
+                    {
+                        state = CODE;
+                        i++;
+                    }
+                    break;
+
+                default:
+                    if (Character.isWhitespace(c))
+                        break;
+
+                    if ((c == '-') && (next == '-'))
+                    {
+                        // Rest of the line is a comment.
+                        i = len;
+                        break;
+                    }
+
+                    if ((c == '/') && (next == '*'))
+                    {
+                        state = BLOCK_COMMENT;
+                        i++;
+                        break;
+                    }
+
+                    empty = false;
+                    terminated = (c == terminator);
+                    if (c == '\'')
+                        state = SINGLE_QUOTE;
+                    else if (c == '"')
+                        state = DOUBLE_QUOTE;
+                    break;
+            }
+        }
+
+        if (state != CODE)
+            return false;
+
+        return terminated || empty;
+    }
+}
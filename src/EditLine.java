@@ -40,7 +40,12 @@ import java.io.FileReader;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * <p>This class provides a Java interface to the BSD Editline library,
@@ -73,6 +78,24 @@ import java.util.Arrays;
  * }
  * </pre></blockquote>
  *
+ * <h2>Startup</h2>
+ *
+ * <p>To keep startup cheap for short-lived programs, nothing native
+ * happens when the class is loaded or when <tt>init()</tt> is called.
+ * The native library is loaded, and the underlying Editline instance is
+ * created, the first time it's actually needed: typically, the first call
+ * to <tt>getLine()</tt>, though history operations also trigger it. The
+ * prompt, history size, history uniqueness setting and any commands passed
+ * to <tt>invokeCommand()</tt> before then are remembered and applied
+ * when the instance is created, in a single native call. Since class
+ * initialization doesn't touch native code, the class is also safe to
+ * include in a class data sharing archive or a checkpoint image.</p>
+ *
+ * <p>The native library is looked up on <tt>java.library.path</tt>
+ * first. If it isn't there, the copy embedded in the jar for the current
+ * platform is extracted to a per-user cache directory (once) and loaded
+ * from there.</p>
+ *
  * <h2>Restrictions</h2>
  *
  * This Java wrapper does not expose all the functionality of the underlying
@@ -111,7 +134,41 @@ public class EditLine
     \*----------------------------------------------------------------------*/
 
     private static final String INITIAL_PROMPT = "? ";
-    public static final String VERSION = "0.3.1";
+    private static final String INITIAL_CONTINUATION_PROMPT = "> ";
+
+    /*
+     * First line of a history file written by saveHistory(), marking the
+     * format in which embedded newlines and backslashes are escaped. Files
+     * without it (e.g., from earlier versions) are read verbatim.
+     */
+    private static final String HISTORY_FILE_HEADER = "_JaVaEdItLiNe_V2_";
+    public static final String VERSION = "0.4";
+
+    /**
+     * The default number of recent history entries handed to the Editline
+     * library when a history store is in use. See <tt>setHistoryStore()</tt>.
+     */
+    public static final int DEFAULT_HISTORY_WINDOW = 256;
+
+    /**
+     * The default number of entries fetched at a time by the iterator
+     * returned from <tt>historyIterator()</tt>.
+     */
+    public static final int DEFAULT_HISTORY_PAGE_SIZE = 64;
+
+    /*
+     * Size of each half of the buffer shared with the native code for
+     * suggestions: the line goes in the first half, the suggestion in the
+     * second. Must match SUGGESTION_MAX in the C code.
+     */
+    private static final int SUGGESTION_MAX = 2048;
+
+    /*
+     * The maximum number of completions, from a single completion request,
+     * that are added to the suggestion index. Larger sets (e.g., a whole
+     * directory listing) say little about what the user will type.
+     */
+    private static final int MAX_SUGGESTED_COMPLETIONS = 32;
 
     /*----------------------------------------------------------------------*\
                             Instance Variables
@@ -119,23 +176,37 @@ public class EditLine
 
     private boolean initialized = false;
     private CompletionHandler completionHandler = null;
+    private ContinuationDetector continuationDetector = null;
+    private String continuationPrompt = INITIAL_CONTINUATION_PROMPT;
     private boolean historyUnique = false;
     private long handle = 0;
-    private String currentPrompt = null;
+    private String program = null;
+    private File initFile = null;
+    private EditLineConfig config = null;
+    private String currentPrompt = INITIAL_PROMPT;
+    private int historySize = 0;
+
+    /*
+      Lines added since creation, and the number of times the history was
+      cleared or replaced. Used by history iterators to keep their place.
+    */
+    private int historyAdded = 0;
+    private int historyGeneration = 0;
+    private boolean historySizeSet = false;
+    private List<String[]> pendingCommands = new ArrayList<String[]>();
     private int maxShownCompletions = 30;
+    private CompactHistory historyStore = null;
+    private int historyWindow = DEFAULT_HISTORY_WINDOW;
+    private boolean suggestionsEnabled = false;
+    private boolean suggestionBindingsInstalled = false;
+    private SuggestionIndex suggestionIndex = null;
+    private ByteBuffer suggestionBuffer = null;
+    private byte[] suggestionLine = null;
+    private byte[] suggestionText = null;
 
     private PossibleCompletionsDisplayer completionsDisplayer =
         new DefaultCompletionDisplayer();
 
-    /*----------------------------------------------------------------------*\
-                           Static Initialization
-    \*----------------------------------------------------------------------*/
-
-    static
-    {
-        System.loadLibrary("javaeditline");
-    }
-
     /*----------------------------------------------------------------------*\
                                Inner Classes
     \*----------------------------------------------------------------------*/
@@ -164,6 +235,33 @@ public class EditLine
         public String[] complete(String token, String line, int cursor);
     }
 
+    /**
+     * Any class wishing to decide when a multi-line statement is complete,
+     * for <tt>getStatement()</tt>, must implement this interface. A
+     * detector is incremental: it's given each line of a statement once,
+     * in order, and keeps whatever scanning state it needs (open quotes,
+     * nesting depth, etc.) between lines, so it never has to rescan the
+     * statement.
+     */
+    public interface ContinuationDetector
+    {
+        /**
+         * Called by EditLine before the first line of each statement.
+         * Discards any state left over from the previous statement.
+         */
+        public void reset();
+
+        /**
+         * Called by EditLine with each line of the statement being read.
+         *
+         * @param line  the next line, without its trailing newline
+         *
+         * @return true if the statement is complete, false if more lines
+         *         are needed
+         */
+        public boolean addLine(String line);
+    }
+
     /**
      * Defines the interface for a class that will display multiple completions,
      * when multiple completions exist for a token. The default handler
@@ -182,6 +280,98 @@ public class EditLine
         public void showCompletions(Iterable<String> tokens);
     }
 
+    /**
+     * Iterates over the history, newest entry first, fetching a page of
+     * entries at a time. Positions are counted from the newest entry, and
+     * corrected for lines added since the iterator was created, so they
+     * don't shift as the history changes.
+     */
+    private class HistoryIterator implements Iterator<String>
+    {
+        private final int pageSize;
+        private final int added;      // historyAdded at creation
+        private final int generation; // historyGeneration at creation
+        private int returned = 0;     // lines returned so far
+        private boolean exhausted = false;
+        private String[] page = new String[0];
+        private int pageIndex = 0;    // next position in page, counting down
+
+        HistoryIterator(int pageSize)
+        {
+            this.pageSize = pageSize;
+            this.added = historyAdded;
+            this.generation = historyGeneration;
+        }
+
+        public boolean hasNext()
+        {
+            if (generation != historyGeneration)
+                return false;
+
+            if ((pageIndex == 0) && (! exhausted))
+            {
+                page = recentHistory(returned + historyAdded - added,
+                                     pageSize);
+                pageIndex = page.length;
+                exhausted = (page.length < pageSize);
+            }
+
+            return (pageIndex > 0);
+        }
+
+        public String next()
+        {
+            if (! hasNext())
+                throw new NoSuchElementException();
+
+            returned++;
+            return page[--pageIndex];
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Key bindings installed when suggestions are enabled, and the default
+     * bindings they replace. Printable characters are bound to a
+     * self-insert function that forces a redisplay (so that the suggestion
+     * is recomputed on each keystroke), and the right arrow key accepts the
+     * suggestion. Held here so that they're only built if suggestions are
+     * ever enabled.
+     */
+    private static class SuggestionBindings
+    {
+        static final EditLineConfig ENABLED =
+            bindings("java-self-insert", "java-accept-suggestion");
+        static final EditLineConfig DISABLED =
+            bindings("ed-insert", "ed-next-char");
+
+        private static EditLineConfig bindings(String insertFunction,
+                                               String rightFunction)
+        {
+            List<String[]> commands = new ArrayList<String[]>();
+            for (char c = ' '; c <= '~'; c++)
+            {
+                // "bind" reads a leading '-' as an option switch, and '^'
+                // and '\\' as the start of an escape, so escape all three.
+                String key;
+                if ((c == '^') || (c == '\\') || (c == '-'))
+                    key = "\\" + c;
+                else
+                    key = String.valueOf(c);
+
+                commands.add(new String[] {"bind", key, insertFunction});
+            }
+
+            commands.add(new String[] {"bind", "\\e[C", rightFunction});
+            commands.add(new String[] {"bind", "\\eOC", rightFunction});
+            return EditLineConfig.fromCommands(commands);
+        }
+    }
+
     /**
      * Default completion displayer.
      */
@@ -216,8 +406,11 @@ public class EditLine
     /**
      * Construct a new EditLine instance.
      */
-    private EditLine()
+    private EditLine(String program, File initFile, EditLineConfig config)
     {
+        this.program = program;
+        this.initFile = initFile;
+        this.config = config;
         initialized = true;
     }
 
@@ -245,20 +438,38 @@ public class EditLine
      *                  or null for none. This file is passed directly to
      *                  the underlying Editline library's
      *                  <tt>el_source()</tt> function. Consult the manual
-     *                  page for Editline for details.
+     *                  page for Editline for details. It is read when
+     *                  the underlying Editline instance is created (see
+     *                  above).
      *
      * @return a new <tt>EditLine</tt> instance.
      */
     public static EditLine init(String program, File initFile)
     {
-        EditLine el = new EditLine();
-        el.handle = n_el_init(program, el);
-        el.source(initFile);
-        el.setPrompt(INITIAL_PROMPT);
+        return new EditLine(program, initFile, null);
+    }
 
-        // Bind TAB to complete.
-        el.invokeCommand("bind", "^I", "ed-complete");
-        return el;
+    /**
+     * Initialize a new <tt>EditLine</tt> instance from a pre-parsed
+     * configuration. The configuration takes the place of an initialization
+     * file; in particular, the user's <tt>.editrc</tt> is <i>not</i> read.
+     * (Use <tt>EditLineConfig.loadDefault()</tt> to read it once, and
+     * share it.) The configuration is applied, in a single native call,
+     * when the underlying Editline instance is created, at the point where
+     * an initialization file would be read: before the default bindings
+     * (such as TAB for completion), and before any commands passed to
+     * <tt>invokeCommand()</tt> in the meantime.
+     *
+     * @param program  the calling program's name
+     * @param config   the configuration to apply
+     *
+     * @return a new <tt>EditLine</tt> instance.
+     */
+    public static EditLine initFromConfig(String program,
+                                          EditLineConfig config)
+    {
+        assert(config != null);
+        return new EditLine(program, null, config);
     }
 
     /**
@@ -288,11 +499,13 @@ public class EditLine
         {
             try
             {
-                n_el_end(handle);
+                if (handle != 0)
+                    n_el_end(handle);
             }
 
             finally
             {
+                handle = 0;
                 initialized = false;
             }
         }
@@ -370,7 +583,8 @@ public class EditLine
     public void setPrompt(String prompt)
     {
         assert(prompt != null);
-        n_el_set_prompt(handle, prompt);
+        if (handle != 0)
+            n_el_set_prompt(handle, prompt);
         this.currentPrompt = prompt;
     }
 
@@ -393,7 +607,7 @@ public class EditLine
      */
     public String getLine()
     {
-        String s = n_el_gets(handle);
+        String s = n_el_gets(handle());
         if (s != null)
         {
             int len = s.length();
@@ -404,6 +618,113 @@ public class EditLine
         return s;
     }
 
+    /**
+     * <p>Prompt the user for a statement that may span several lines. The
+     * first line is read with the regular prompt, and any further lines
+     * with the continuation prompt, until the continuation detector
+     * reports that the statement is complete. The lines are returned
+     * joined by newlines. If there's no continuation detector, this method
+     * is equivalent to <tt>getLine()</tt>.</p>
+     *
+     * <p>A statement passed to <tt>addToHistory()</tt> becomes a single
+     * history entry. When the user recalls it, the whole statement comes
+     * back into the editing buffer (one screen line per line), where it
+     * can be edited as a unit and re-entered with a single Return.
+     * <tt>saveHistory()</tt> and <tt>loadHistory()</tt> preserve such
+     * entries.</p>
+     *
+     * @return the statement, or null on end-of-file. If end-of-file is
+     *         reached part way through a statement, the partial statement
+     *         is returned.
+     */
+    public String getStatement()
+    {
+        ContinuationDetector detector = continuationDetector;
+        if (detector == null)
+            return getLine();
+
+        detector.reset();
+        StringBuilder statement = null;
+
+        try
+        {
+            for (;;)
+            {
+                String line = getLine();
+                if (line == null)
+                    break;
+
+                if (statement == null)
+                {
+                    statement = new StringBuilder(line);
+                    n_el_set_prompt(handle(), continuationPrompt);
+                }
+
+                else
+                    statement.append('\n').append(line);
+
+                // A recalled multi-line statement arrives all at once.
+                if (addLines(detector, line))
+                    break;
+            }
+        }
+
+        finally
+        {
+            if (handle != 0)
+                n_el_set_prompt(handle, currentPrompt);
+        }
+
+        return (statement == null) ? null : statement.toString();
+    }
+
+    /**
+     * Get the current continuation detector, which <tt>getStatement()</tt>
+     * uses to decide whether a statement needs more lines. There is no
+     * default continuation detector.
+     *
+     * @return the continuation detector, or null if there isn't one
+     */
+    public ContinuationDetector getContinuationDetector()
+    {
+        return continuationDetector;
+    }
+
+    /**
+     * Set (replace) the continuation detector, which
+     * <tt>getStatement()</tt> uses to decide whether a statement needs more
+     * lines.
+     *
+     * @param detector  the continuation detector, or null to clear it
+     */
+    public void setContinuationDetector(ContinuationDetector detector)
+    {
+        this.continuationDetector = detector;
+    }
+
+    /**
+     * Set the prompt displayed for the second and subsequent lines of a
+     * statement read by <tt>getStatement()</tt>. The default continuation
+     * prompt is "&gt; ".
+     *
+     * @param prompt  the new continuation prompt. Must not be null.
+     */
+    public void setContinuationPrompt(String prompt)
+    {
+        assert(prompt != null);
+        this.continuationPrompt = prompt;
+    }
+
+    /**
+     * Get the current continuation prompt.
+     *
+     * @return the continuation prompt. Never null.
+     */
+    public String getContinuationPrompt()
+    {
+        return continuationPrompt;
+    }
+
     /**
      * Invoke an <tt>editline</tt> command. This method is functionally
      * equivalent to the underlying <tt>editline</tt> library's
@@ -416,7 +737,35 @@ public class EditLine
      */
     public void invokeCommand(String... args)
     {
-        n_el_parse(handle, args, args.length);
+        if (handle == 0)
+        {
+            pendingCommands.add(args.clone());
+        }
+
+        else
+        {
+            // Packed, the arguments cross into native code as one array.
+            EditLineConfig command =
+                EditLineConfig.fromCommands(new String[][] {args});
+            n_el_parse_batch(handle,
+                             command.packedArgs(),
+                             command.argCounts());
+        }
+    }
+
+    /**
+     * Apply all the commands in a configuration, in order, as if each one
+     * had been passed to <tt>invokeCommand()</tt>. The commands are
+     * applied with a single native call.
+     *
+     * @param config  the configuration
+     */
+    public void applyConfig(EditLineConfig config)
+    {
+        if (handle == 0)
+            pendingCommands.addAll(config.getCommands());
+        else
+            n_el_parse_batch(handle, config.packedArgs(), config.argCounts());
     }
 
     /**
@@ -438,7 +787,13 @@ public class EditLine
     public void setHistorySize(int size)
     {
         assert(size >= 0);
-        n_history_set_size(handle, size);
+        historySize = size;
+        historySizeSet = true;
+        if (historyStore != null)
+            historyStore.setMaxEntries(size);
+
+        if (handle != 0)
+            n_history_set_size(handle, nativeHistorySize());
     }
 
     /**
@@ -454,7 +809,7 @@ public class EditLine
      */
     public int getHistorySize()
     {
-        return n_history_get_size(handle);
+        return historySize;
     }
 
     /**
@@ -462,7 +817,92 @@ public class EditLine
      */
     public void clearHistory()
     {
-        n_history_clear(handle);
+        historyGeneration++;
+        if (historyStore != null)
+        {
+            historyStore.clear();
+            if (handle == 0)
+                return;
+        }
+
+        n_history_clear(handle());
+    }
+
+    /**
+     * <p>Keep the history in a {@link CompactHistory} store, instead of
+     * solely within the Editline library. The store holds the entire
+     * history; the Editline library is only given the most recent
+     * <tt>window</tt> entries, which is all it needs for up/down
+     * navigation. Operations on the full history, such as
+     * <tt>getHistory()</tt> and <tt>saveHistory()</tt>, are served from
+     * the store.</p>
+     *
+     * <p>If <tt>setHistorySize()</tt> has been called, that maximum is
+     * transferred to the store, which discards its oldest entries if it
+     * holds more. Otherwise, the store keeps its own maximum, and nothing
+     * it already holds is discarded. If the store already has entries
+     * (e.g., because it was reopened from a file), they replace the
+     * current contents of the history buffer. If the store is empty, the
+     * current contents of the history buffer are copied into it
+     * first.</p>
+     *
+     * @param store   the store, or null to go back to keeping the history
+     *                solely within the Editline library
+     * @param window  the number of recent entries to give to the Editline
+     *                library. Must be positive.
+     */
+    public void setHistoryStore(CompactHistory store, int window)
+    {
+        assert(window > 0);
+
+        // Don't lose the current history to an empty store. (If there's
+        // neither a store nor an Editline instance, there's no history.)
+        if ((store != null) && (store.size() == 0) &&
+            ((historyStore != null) || (handle != 0)))
+        {
+            for (String line : getHistory())
+                store.add(line);
+        }
+
+        historyGeneration++;
+        this.historyStore = store;
+        this.historyWindow = window;
+        if ((store != null) && historySizeSet)
+            store.setMaxEntries(historySize);
+
+        if (handle != 0)
+        {
+            n_history_set_size(handle, nativeHistorySize());
+            if (store != null)
+                loadHistoryWindow(handle);
+        }
+    }
+
+    /**
+     * Keep the history in a {@link CompactHistory} store. This method is
+     * just a convenience for:
+     *
+     * <blockquote><pre>
+     * setHistoryStore(store, DEFAULT_HISTORY_WINDOW);
+     * </pre></blockquote>
+     *
+     * @param store  the store, or null to go back to keeping the history
+     *               solely within the Editline library
+     */
+    public void setHistoryStore(CompactHistory store)
+    {
+        setHistoryStore(store, DEFAULT_HISTORY_WINDOW);
+    }
+
+    /**
+     * Get the history store, if any.
+     *
+     * @return the history store, or null if the history is kept solely
+     *         within the Editline library
+     */
+    public CompactHistory getHistoryStore()
+    {
+        return historyStore;
     }
 
     /**
@@ -483,7 +923,27 @@ public class EditLine
     public void addToHistory(String line)
     {
         if ((line != null) && (line.trim().length() > 0))
-            n_history_append(handle, line);
+        {
+            if (suggestionIndex != null)
+                suggestionIndex.add(line);
+
+            if (historyStore != null)
+            {
+                if (historyUnique && line.equals(historyStore.last()))
+                    return;
+                if (historyStore.add(line))
+                    historyAdded++;
+
+                // The window is loaded from the store on creation.
+                if (handle != 0)
+                    n_history_append(handle, line);
+            }
+
+            else if (n_history_append(handle(), line))
+            {
+                historyAdded++;
+            }
+        }
     }
 
     /**
@@ -493,7 +953,10 @@ public class EditLine
      */
     public String currentHistoryLine()
     {
-        return n_history_current(handle);
+        if (historyStore != null)
+            return historyStore.last();
+
+        return n_history_current(handle());
     }
 
     /**
@@ -504,22 +967,112 @@ public class EditLine
      */
     public String[] getHistory()
     {
-        return n_history_get_all(handle);
+        if (historyStore != null)
+            return historyStore.toArray();
+
+        return n_history_get_all(handle());
+    }
+
+    /**
+     * Get a range of lines from the history buffer, oldest first. Only the
+     * requested lines are retrieved, in a single call to the underlying
+     * library, so this method is much cheaper than <tt>getHistory()</tt>
+     * when only part of a large history is needed. For instance, the 20
+     * most recent lines are:
+     *
+     * <blockquote><pre>
+     * int total = el.historyCount();
+     * int n = Math.min(total, 20);
+     * String[] recent = el.getHistory(total - n, n);
+     * </pre></blockquote>
+     *
+     * @param fromIndex  the index of the first line to get, where 0 is the
+     *                   oldest line in the history
+     * @param count      the number of lines to get
+     *
+     * @return the lines
+     *
+     * @throws IndexOutOfBoundsException if the range is not within the
+     *                                   history buffer
+     */
+    public String[] getHistory(int fromIndex, int count)
+    {
+        // Both the store and the native code check the range themselves.
+        if (historyStore != null)
+            return historyStore.get(fromIndex, count);
+
+        return n_history_get_range(handle(), fromIndex, count);
+    }
+
+    /**
+     * Get an iterator over the history buffer that returns the newest line
+     * first. Lines are retrieved a page at a time, as the iterator
+     * advances, with one native call per page. The iterator returns the
+     * lines that were in the history when it was created: lines added
+     * afterwards are not returned, and lines discarded (because the
+     * history is full) before the iterator reaches them end the iteration
+     * early. Once the history is cleared, the iterator returns no more
+     * lines.
+     *
+     * @return the iterator
+     */
+    public Iterator<String> historyIterator()
+    {
+        return historyIterator(DEFAULT_HISTORY_PAGE_SIZE);
     }
 
     /**
-     * Get the number of lines in the current history buffer.
+     * Get an iterator over the history buffer that returns the newest line
+     * first. Lines are retrieved <tt>pageSize</tt> at a time, as the
+     * iterator advances, with one native call per page. The iterator
+     * behaves as described for <tt>historyIterator()</tt> when the history
+     * changes.
+     *
+     * @param pageSize  the number of lines to retrieve at a time. Must be
+     *                  positive.
+     *
+     * @return the iterator
+     */
+    public Iterator<String> historyIterator(int pageSize)
+    {
+        assert(pageSize > 0);
+        return new HistoryIterator(pageSize);
+    }
+
+    /**
+     * Get the number of lines in the current history buffer. Unlike
+     * <tt>getHistorySize()</tt>, which returns the maximum number of lines
+     * the history buffer can hold, this method returns the number of lines
+     * it actually holds.
+     *
+     * @return the number of lines in the history buffer
+     */
+    public int historyCount()
+    {
+        if (historyStore != null)
+            return historyStore.size();
+
+        return n_history_count(handle());
+    }
+
+    /**
+     * Get the number of lines in the current history buffer. This method
+     * is equivalent to <tt>historyCount()</tt>.
      *
      * @return the number of lines in the history buffer
      */
     public int historyTotal()
     {
-        return n_history_get_size(handle);
+        return historyCount();
     }
 
     /**
      * Load the contents of a text file, adding its lines to the history
-     * buffer.
+     * buffer. Each line is one entry. If the file was written by
+     * <tt>saveHistory()</tt> (i.e., it starts with the history file
+     * header), the escapes it wrote (<tt>\n</tt> for an embedded newline
+     * and <tt>\\</tt> for a backslash) are decoded; otherwise, lines are
+     * added exactly as they appear.
      *
      * @param f  the file to read
      *
@@ -531,14 +1084,23 @@ public class EditLine
                IOException
     {
         BufferedReader r = new BufferedReader(new FileReader(f));
-        for (String line = r.readLine(); line != null; line = r.readLine())
-            addToHistory(line);
+        String line = r.readLine();
+        boolean escaped = HISTORY_FILE_HEADER.equals(line);
+        if (escaped)
+            line = r.readLine();
+
+        for (; line != null; line = r.readLine())
+            addToHistory(escaped ? unescapeHistoryLine(line) : line);
 
         r.close();
     }
 
     /**
      * Save the history buffer to a file. The file is overwritten, not appended.
+     * The file starts with a header line identifying its format. Each
+     * entry is then written on one line: embedded newlines (from
+     * multi-line statements) are written as <tt>\n</tt>, and backslashes
+     * are doubled.
      *
      * @param f  the file to write
      *
@@ -551,8 +1113,9 @@ public class EditLine
         if ((history != null) && (history.length > 0))
         {
             FileWriter w = new FileWriter(f);
+            w.write(HISTORY_FILE_HEADER + "\n");
             for (String line : history)
-                w.write(line + "\n");
+                w.write(escapeHistoryLine(line) + "\n");
             w.close();
         }
     }
@@ -580,10 +1143,97 @@ public class EditLine
      */
     public void setHistoryUnique(boolean unique)
     {
-        n_history_set_unique(handle, unique);
+        if (handle != 0)
+            n_history_set_unique(handle, unique);
         historyUnique = unique;
     }
 
+    /**
+     * <p>Enable or disable inline suggestions. While suggestions are
+     * enabled, the most likely completion of the line being typed is shown,
+     * dimmed, at the right edge of the line, and pressing the right arrow
+     * key at the end of the line accepts it. Suggestions come from a
+     * {@link SuggestionIndex}: by default, a new one filled from the
+     * current history. Every line subsequently passed to
+     * <tt>addToHistory()</tt> is added to the index, as is, each time the
+     * completion handler returns a small set of completions for the token
+     * at the end of the line, the line each completion would produce. A
+     * line's frequency, across both sources, decides which suggestion
+     * wins.</p>
+     *
+     * <p>Suggestions are recomputed on every keystroke, from the native
+     * line buffer, without creating any Java strings. To do that,
+     * enabling suggestions rebinds the printable ASCII characters, and the
+     * right arrow key, in the main key map; disabling suggestions (after
+     * they were enabled) restores the default bindings for those keys.
+     * While suggestions are enabled, a printable character is always
+     * inserted once, at the cursor: a repeat count (e.g., vi's <tt>3x</tt>
+     * style prefixes) and overwrite mode are not honored for those
+     * keys.</p>
+     *
+     * <p>The suggestion is dimmed with an ANSI escape sequence, which
+     * requires an Editline library that supports <tt>EL_RPROMPT_ESC</tt>.
+     * With older libraries, the suggestion is shown without dimming.
+     * Suggestions stop at the first control character, so a multi-line
+     * history entry is only suggested up to the end of its first line.</p>
+     *
+     * @param enabled  whether or not to show suggestions
+     */
+    public void setSuggestionsEnabled(boolean enabled)
+    {
+        if (enabled && (suggestionIndex == null))
+        {
+            SuggestionIndex index = new SuggestionIndex();
+            int total = historyCount();
+            for (int i = 0; i < total; i += DEFAULT_HISTORY_PAGE_SIZE)
+            {
+                int n = Math.min(DEFAULT_HISTORY_PAGE_SIZE, total - i);
+                for (String line : getHistory(i, n))
+                    index.add(line);
+            }
+
+            suggestionIndex = index;
+        }
+
+        suggestionsEnabled = enabled;
+        if (handle != 0)
+            applySuggestions(handle);
+    }
+
+    /**
+     * Determine whether inline suggestions are enabled.
+     *
+     * @return whether or not suggestions are enabled
+     */
+    public boolean getSuggestionsEnabled()
+    {
+        return suggestionsEnabled;
+    }
+
+    /**
+     * Get the index suggestions are drawn from. Callers can add their own
+     * candidates (e.g., command names) to it.
+     *
+     * @return the index, or null if suggestions have never been enabled
+     *         and no index has been set
+     */
+    public SuggestionIndex getSuggestionIndex()
+    {
+        return suggestionIndex;
+    }
+
+    /**
+     * Set (replace) the index suggestions are drawn from. An index can be
+     * shared by several <tt>EditLine</tt> instances.
+     *
+     * @param index  the new index, or null to build a new one from the
+     *               history the next time suggestions are enabled
+     */
+    public void setSuggestionIndex(SuggestionIndex index)
+    {
+        this.suggestionIndex = index;
+    }
+
     /**
      * Get the maximum number of completions displayed, when more than one
      * string could match a completed string. If there are more than that
@@ -624,29 +1274,303 @@ public class EditLine
         if (completionHandler != null)
             result = completionHandler.complete(token, line, cursor);
 
+        if (suggestionsEnabled && (result != null))
+            suggestCompletions(token, line, result);
+
         return result;
     }
 
-    private void source(File initFile)
+    /**
+     * Add the lines that the completions of a token would produce to the
+     * suggestion index. Only done when the token ends the line, since
+     * that's the only place suggestions are shown. (The cursor is a byte
+     * offset, so it can't be used to split the line.)
+     */
+    private void suggestCompletions(String token, String line,
+                                    String[] completions)
+    {
+        SuggestionIndex index = suggestionIndex;
+        if ((index == null) ||
+            (completions.length > MAX_SUGGESTED_COMPLETIONS) ||
+            (! line.endsWith(token)))
+            return;
+
+        String head = line.substring(0, line.length() - token.length());
+        for (String completion : completions)
+        {
+            if ((completion != null) && (completion.length() > 0))
+                index.add(head + completion);
+        }
+    }
+
+    /**
+     * Get the handle to the underlying Editline instance, creating the
+     * instance (and loading the native library) first, if necessary.
+     */
+    private synchronized long handle()
+    {
+        if (handle == 0)
+        {
+            if (! initialized)
+                throw new IllegalStateException("EditLine was cleaned up.");
+
+            // The configuration stands in for the initialization file;
+            // commands passed to invokeCommand() run after the defaults.
+            EditLineConfig initial =
+                (config == null) ? EditLineConfig.EMPTY : config;
+            EditLineConfig commands =
+                EditLineConfig.fromCommands(pendingCommands);
+
+            NativeLibrary.load();
+            handle = n_el_create(this,
+                                 program,
+                                 (config == null),
+                                 (initFile == null) ? null : initFile.getPath(),
+                                 initial.packedArgs(),
+                                 initial.argCounts(),
+                                 currentPrompt,
+                                 nativeHistorySize(),
+                                 historyUnique,
+                                 commands.packedArgs(),
+                                 commands.argCounts());
+            pendingCommands.clear();
+
+            if (historyStore != null)
+                loadHistoryWindow(handle);
+            if (suggestionsEnabled)
+                applySuggestions(handle);
+        }
+
+        return handle;
+    }
+
+    /**
+     * Push the current suggestion setting down to the Editline instance.
+     */
+    private void applySuggestions(long h)
+    {
+        if (suggestionsEnabled)
+        {
+            if (suggestionBuffer == null)
+            {
+                suggestionBuffer =
+                    ByteBuffer.allocateDirect(SUGGESTION_MAX * 2);
+                suggestionLine = new byte[SUGGESTION_MAX];
+                suggestionText = new byte[SUGGESTION_MAX - 1];
+            }
+
+            n_el_set_suggestions(h, suggestionBuffer);
+            if (! suggestionBindingsInstalled)
+            {
+                n_el_parse_batch(h,
+                                 SuggestionBindings.ENABLED.packedArgs(),
+                                 SuggestionBindings.ENABLED.argCounts());
+                suggestionBindingsInstalled = true;
+            }
+        }
+
+        else if (suggestionBindingsInstalled)
+        {
+            // Only undo bindings we made, so as not to clobber the
+            // user's own bindings for these keys.
+            n_el_set_suggestions(h, null);
+            n_el_parse_batch(h,
+                             SuggestionBindings.DISABLED.packedArgs(),
+                             SuggestionBindings.DISABLED.argCounts());
+            suggestionBindingsInstalled = false;
+        }
+    }
+
+    /**
+     * Called by the native code, on each redisplay, to compute the
+     * suggestion for the line being edited. The first <tt>len</tt> bytes
+     * of the shared buffer hold the (UTF-8) line; the suggested remainder
+     * of the line is written to the second half of the buffer, and its
+     * length is returned. The suggestion is cut off at the first control
+     * character, since it's displayed verbatim in the right prompt.
+     */
+    private int suggest(int len)
+    {
+        SuggestionIndex index = suggestionIndex;
+        if ((index == null) || (len <= 0) || (len > SUGGESTION_MAX))
+            return 0;
+
+        suggestionBuffer.clear();
+        suggestionBuffer.get(suggestionLine, 0, len);
+        int n = index.suggest(suggestionLine, len, suggestionText);
+        for (int i = 0; i < n; i++)
+        {
+            byte b = suggestionText[i];
+            if (((b >= 0) && (b < 0x20)) || (b == 0x7f))
+                n = i;
+        }
+
+        if (n > 0)
+        {
+            suggestionBuffer.position(SUGGESTION_MAX);
+            suggestionBuffer.put(suggestionText, 0, n);
+        }
+
+        return n;
+    }
+
+    /**
+     * Encode a history entry as a single line of a history file.
+     */
+    private static String escapeHistoryLine(String line)
+    {
+        if ((line.indexOf('\n') < 0) && (line.indexOf('\\') < 0))
+            return line;
+
+        StringBuilder buf = new StringBuilder(line.length() + 8);
+        for (int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+            if (c == '\n')
+                buf.append("\\n");
+            else if (c == '\\')
+                buf.append("\\\\");
+            else
+                buf.append(c);
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * Decode a line of a history file. Backslashes that don't start a
+     * known escape are kept as is.
+     */
+    private static String unescapeHistoryLine(String line)
+    {
+        if (line.indexOf('\\') < 0)
+            return line;
+
+        StringBuilder buf = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i++)
+        {
+            char c = line.charAt(i);
+            char next = (i + 1 < line.length()) ? line.charAt(i + 1) : '\0';
+            if ((c == '\\') && (next == 'n'))
+            {
+                buf.append('\n');
+                i++;
+            }
+
+            else if ((c == '\\') && (next == '\\'))
+            {
+                buf.append('\\');
+                i++;
+            }
+
+            else
+            {
+                buf.append(c);
+            }
+        }
+
+        return buf.toString();
+    }
+
+    /**
+     * Feed what getLine() returned to a continuation detector, one line at
+     * a time. Returns the detector's verdict on the last line.
+     */
+    private static boolean addLines(ContinuationDetector detector,
+                                    String lines)
+    {
+        int start = 0;
+        int nl;
+        while ((nl = lines.indexOf('\n', start)) >= 0)
+        {
+            detector.addLine(lines.substring(start, nl));
+            start = nl + 1;
+        }
+
+        return detector.addLine(lines.substring(start));
+    }
+
+    /**
+     * Get up to <tt>count</tt> lines, oldest first, ending <tt>skip</tt>
+     * lines before the newest line. Fewer lines are returned if the
+     * history runs out.
+     */
+    private String[] recentHistory(int skip, int count)
     {
-        n_el_source(handle, initFile == null ? null : initFile.getPath());
+        if (historyStore == null)
+            return n_history_get_recent(handle(), skip, count);
+
+        int total = historyStore.size();
+        if (skip >= total)
+            return new String[0];
+
+        int n = Math.min(count, total - skip);
+        return historyStore.get(total - skip - n, n);
+    }
+
+    /**
+     * Replace the Editline library's history with the most recent entries
+     * in the history store.
+     */
+    private void loadHistoryWindow(long h)
+    {
+        int total = historyStore.size();
+        int n = Math.min(total, historyWindow);
+
+        n_history_clear(h);
+        for (String line : historyStore.get(total - n, n))
+            n_history_append(h, line);
+    }
+
+    /**
+     * The history size to give the Editline library: the full size,
+     * unless a history store is in use. A store whose size hasn't been
+     * set through <tt>setHistorySize()</tt> uses its own maximum.
+     */
+    private int nativeHistorySize()
+    {
+        if (historyStore == null)
+            return historySize;
+
+        int size = historySizeSet ? historySize : historyStore.getMaxEntries();
+        return Math.min(size, historyWindow);
     }
 
     /*----------------------------------------------------------------------*\
                               Native Methods
     \*----------------------------------------------------------------------*/
 
-    private native static long n_el_init(String program, EditLine editLine);
-    private native static void n_el_source(long handle, String path);
+    private native static long n_el_create(EditLine editLine,
+                                           String program,
+                                           boolean source,
+                                           String initPath,
+                                           byte[] configArgs,
+                                           int[] configArgCounts,
+                                           String prompt,
+                                           int historySize,
+                                           boolean historyUnique,
+                                           byte[] commandArgs,
+                                           int[] commandArgCounts);
     private native static void n_el_end(long handle);
     private native static void n_el_set_prompt(long handle, String prompt);
     private native static String n_el_gets(long handle);
-    private native static void n_el_parse(long handle, String[] args, int len);
-    private native static int n_history_get_size(long handle);
+    private native static void n_el_parse_batch(long handle,
+                                                byte[] commands,
+                                                int[] argCounts);
+    private native static void n_el_set_suggestions(long handle,
+                                                    ByteBuffer buffer);
     private native static void n_history_set_size(long handle, int size);
     private native static void n_history_clear(long handle);
-    private native static void n_history_append(long handle, String line);
+    private native static boolean n_history_append(long handle,
+                                                   String line);
     private native static String[] n_history_get_all(long handle);
+    private native static String[] n_history_get_range(long handle,
+                                                       int from,
+                                                       int count);
+    private native static String[] n_history_get_recent(long handle,
+                                                        int skip,
+                                                        int count);
+    private native static int n_history_count(long handle);
     private native static String n_history_current(long handle);
     private native static void n_history_set_unique(long handle, boolean on);
 }
@@ -0,0 +1,408 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  http://opensource.org/licenses/bsd-license.php.
+
+  Copyright (c) 2010 Brian M. Clapper
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the names "clapper.org", "Java EditLine", nor the names of its
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+  POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.editline;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>An immutable set of Editline commands (<tt>bind</tt>, <tt>edit</tt>,
+ * <tt>settc</tt>, etc.), typically read from an <tt>editrc</tt> file.
+ * The file is read and tokenized once, when the <tt>EditLineConfig</tt> is
+ * created; the commands are also encoded, once, in the form the native
+ * code consumes. Applying the configuration to an <tt>EditLine</tt>
+ * instance is then a single native call, with no per-command or
+ * per-argument string conversion. A single <tt>EditLineConfig</tt> can
+ * be shared by any number of <tt>EditLine</tt> instances, on any number of
+ * threads.</p>
+ *
+ * <blockquote><pre>
+ * EditLineConfig config = EditLineConfig.load(new File("myprogram.editrc"));
+ * ...
+ * EditLine el = EditLine.initFromConfig("myprogram", config);
+ * </pre></blockquote>
+ *
+ * <p>Files are parsed the way the Editline library's <tt>el_source()</tt>
+ * function parses them: blank lines and lines starting with "#" are
+ * ignored, and each remaining line is split into words, honoring single
+ * quotes, double quotes and backslashes. A command may be prefixed with a
+ * program name and a colon (e.g., "<tt>myprogram:bind -v</tt>"), in which
+ * case the Editline library applies it only to instances initialized with
+ * that program name.</p>
+ */
+public final class EditLineConfig
+{
+    /*----------------------------------------------------------------------*\
+                            Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * A configuration with no commands.
+     */
+    public static final EditLineConfig EMPTY =
+        new EditLineConfig(new ArrayList<String[]>());
+
+    /*----------------------------------------------------------------------*\
+                            Instance Variables
+    \*----------------------------------------------------------------------*/
+
+    private final List<String[]> commands;
+
+    /* Every argument of every command, UTF-8 encoded and NUL-terminated. */
+    private final byte[] packedArgs;
+
+    /* The number of arguments in each command. */
+    private final int[] argCounts;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    private EditLineConfig(List<String[]> commands)
+    {
+        this.commands = commands;
+        this.argCounts = new int[commands.size()];
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        int i = 0;
+        for (String[] command : commands)
+        {
+            for (String arg : command)
+            {
+                byte[] bytes = arg.getBytes(UTF8);
+                buf.write(bytes, 0, bytes.length);
+                buf.write(0);
+            }
+
+            argCounts[i++] = command.length;
+        }
+
+        this.packedArgs = buf.toByteArray();
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Static Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Read a configuration from an <tt>editrc</tt> file.
+     *
+     * @param f  the file
+     *
+     * @return the configuration
+     *
+     * @throws FileNotFoundException  if the file doesn't exist.
+     * @throws IOException            if the file cannot be read.
+     */
+    public static EditLineConfig load(File f)
+        throws FileNotFoundException,
+               IOException
+    {
+        Reader r = new InputStreamReader(new FileInputStream(f), UTF8);
+        try
+        {
+            return parse(r);
+        }
+
+        finally
+        {
+            r.close();
+        }
+    }
+
+    /**
+     * Read the configuration the Editline library would read by default:
+     * the file named by the <tt>EDITRC</tt> environment variable, or
+     * <tt>.editrc</tt> in the user's home directory.
+     *
+     * @return the configuration, or <tt>EMPTY</tt> if there is no such file
+     *
+     * @throws IOException  if the file exists, but cannot be read.
+     */
+    public static EditLineConfig loadDefault()
+        throws IOException
+    {
+        String path = System.getenv("EDITRC");
+        File f = (path != null) ? new File(path)
+                                : new File(System.getProperty("user.home"),
+                                           ".editrc");
+
+        if (! f.isFile())
+            return EMPTY;
+
+        return load(f);
+    }
+
+    /**
+     * Parse a configuration from a string, in <tt>editrc</tt> format.
+     *
+     * @param text  the configuration text
+     *
+     * @return the configuration
+     */
+    public static EditLineConfig parse(String text)
+    {
+        try
+        {
+            return parse(new StringReader(text));
+        }
+
+        catch (IOException ex)
+        {
+            // Can't happen with a StringReader.
+            throw new IllegalStateException(ex.toString());
+        }
+    }
+
+    /**
+     * Create a configuration from already-split commands. Each command is
+     * an array of arguments, exactly as they'd be passed to
+     * <tt>EditLine.invokeCommand()</tt>.
+     *
+     * @param commands  the commands
+     *
+     * @return the configuration
+     */
+    public static EditLineConfig fromCommands(String[]... commands)
+    {
+        return fromCommands(Arrays.asList(commands));
+    }
+
+    /**
+     * Create a configuration from already-split commands. Each command is
+     * an array of arguments, exactly as they'd be passed to
+     * <tt>EditLine.invokeCommand()</tt>.
+     *
+     * @param commands  the commands
+     *
+     * @return the configuration
+     */
+    public static EditLineConfig fromCommands(List<String[]> commands)
+    {
+        List<String[]> copy = new ArrayList<String[]>(commands.size());
+        for (String[] command : commands)
+        {
+            if (command.length > 0)
+                copy.add(command.clone());
+        }
+
+        return new EditLineConfig(copy);
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the commands in this configuration.
+     *
+     * @return an unmodifiable list of commands. Each command is a copy of
+     *         the stored arguments, so the configuration itself can't be
+     *         changed through it.
+     */
+    public List<String[]> getCommands()
+    {
+        List<String[]> result = new ArrayList<String[]>(commands.size());
+        for (String[] command : commands)
+            result.add(command.clone());
+
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Get the number of commands in this configuration.
+     *
+     * @return the number of commands
+     */
+    public int size()
+    {
+        return commands.size();
+    }
+
+    /**
+     * Create a new configuration consisting of this configuration's
+     * commands, followed by the commands of another.
+     *
+     * @param other  the other configuration
+     *
+     * @return the combined configuration
+     */
+    public EditLineConfig plus(EditLineConfig other)
+    {
+        if (other.commands.isEmpty())
+            return this;
+        if (commands.isEmpty())
+            return other;
+
+        List<String[]> all = new ArrayList<String[]>(commands);
+        all.addAll(other.commands);
+        return new EditLineConfig(all);
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-private Methods
+    \*----------------------------------------------------------------------*/
+
+    byte[] packedArgs()
+    {
+        return packedArgs;
+    }
+
+    int[] argCounts()
+    {
+        return argCounts;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private static EditLineConfig parse(Reader reader)
+        throws IOException
+    {
+        BufferedReader r = new BufferedReader(reader);
+        List<String[]> commands = new ArrayList<String[]>();
+
+        for (String line = r.readLine(); line != null; line = r.readLine())
+        {
+            String trimmed = line.trim();
+            if ((trimmed.length() == 0) || trimmed.startsWith("#"))
+                continue;
+
+            String[] words = split(trimmed);
+            if (words.length > 0)
+                commands.add(words);
+        }
+
+        return new EditLineConfig(commands);
+    }
+
+    /**
+     * Split a line into words, the way the Editline tokenizer does. Outside
+     * quotes, a backslash quotes the next character. Within single quotes,
+     * everything is literal. Within double quotes, a backslash quotes a
+     * following quote or backslash, and is otherwise kept (so that
+     * key sequences like "\e[A" survive for <tt>bind</tt>).
+     */
+    private static String[] split(String line)
+    {
+        List<String> words = new ArrayList<String>();
+        StringBuilder word = new StringBuilder();
+        boolean inWord = false;
+        char quote = 0;
+        int len = line.length();
+
+        for (int i = 0; i < len; i++)
+        {
+            char c = line.charAt(i);
+
+            if (quote == '\'')
+            {
+                if (c == '\'')
+                    quote = 0;
+                else
+                    word.append(c);
+            }
+
+            else if (quote == '"')
+            {
+                if (c == '"')
+                    quote = 0;
+
+                else if ((c == '\\') && (i + 1 < len))
+                {
+                    char next = line.charAt(i + 1);
+                    if ((next == '"') || (next == '\\') || (next == '\''))
+                    {
+                        word.append(next);
+                        i++;
+                    }
+
+                    else
+                        word.append(c);
+                }
+
+                else
+                    word.append(c);
+            }
+
+            else if (Character.isWhitespace(c))
+            {
+                if (inWord)
+                {
+                    words.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            }
+
+            else
+            {
+                inWord = true;
+                if ((c == '\'') || (c == '"'))
+                    quote = c;
+
+                else if (c == '\\')
+                {
+                    if (i + 1 < len)
+                        word.append(line.charAt(++i));
+                }
+
+                else
+                    word.append(c);
+            }
+        }
+
+        if (inWord)
+            words.add(word.toString());
+
+        return words.toArray(new String[words.size()]);
+    }
+}
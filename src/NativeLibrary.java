@@ -0,0 +1,283 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  http://opensource.org/licenses/bsd-license.php.
+
+  Copyright (c) 2010 Brian M. Clapper
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the names "clapper.org", "Java EditLine", nor the names of its
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+  POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.editline;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URL;
+
+/**
+ * <p>Loads the <tt>javaeditline</tt> native library. The library is first
+ * looked up on <tt>java.library.path</tt>, as usual. If it isn't found
+ * there, the copy embedded in the jar for the current platform (under
+ * <tt>native/<i>os</i>-<i>arch</i>/</tt>) is extracted to a per-user cache
+ * directory and loaded from there. The extracted copy lives in a
+ * subdirectory named for the SHA-256 digest of the embedded library, so
+ * it is reused by later runs of the same build, but never by a different
+ * build that happens to carry the same version number. The digest is
+ * computed when the jar is built, and stored beside the library (as
+ * <tt><i>library</i>.sha256</tt>), so finding a previously extracted copy
+ * costs no more than a small resource read and a file check.</p>
+ *
+ * <p>The cache directory defaults to
+ * <tt>~/.cache/javaeditline/<i>version</i>/<i>os</i>-<i>arch</i>/<i>digest</i></tt>.
+ * The part before <tt><i>os</i>-<i>arch</i></tt> can be changed via the
+ * <tt>org.clapper.editline.cachedir</tt> system property.</p>
+ */
+final class NativeLibrary
+{
+    /*----------------------------------------------------------------------*\
+                            Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final String LIBRARY_NAME = "javaeditline";
+    private static final String CACHE_DIR_PROPERTY =
+        "org.clapper.editline.cachedir";
+
+    /*----------------------------------------------------------------------*\
+                            Static Variables
+    \*----------------------------------------------------------------------*/
+
+    private static boolean loaded = false;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    private NativeLibrary()
+    {
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Static Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Load the native library, if it hasn't already been loaded.
+     *
+     * @throws UnsatisfiedLinkError if the library can't be found or loaded
+     */
+    static synchronized void load()
+    {
+        if (loaded)
+            return;
+
+        try
+        {
+            System.loadLibrary(LIBRARY_NAME);
+        }
+
+        catch (UnsatisfiedLinkError ex)
+        {
+            File lib = extract();
+            if (lib == null)
+                throw ex;
+            System.load(lib.getAbsolutePath());
+        }
+
+        loaded = true;
+    }
+
+    /**
+     * Get the platform identifier used to locate the embedded library,
+     * e.g., "linux-x86_64" or "darwin-aarch64".
+     *
+     * @return the platform identifier
+     */
+    static String platform()
+    {
+        String os = System.getProperty("os.name").toLowerCase();
+        if (os.startsWith("mac"))
+            os = "darwin";
+        else
+            os = os.replaceAll("\\s+", "");
+
+        String arch = System.getProperty("os.arch").toLowerCase();
+        if (arch.equals("amd64"))
+            arch = "x86_64";
+        else if (arch.equals("arm64"))
+            arch = "aarch64";
+
+        return os + "-" + arch;
+    }
+
+    /**
+     * Extract the embedded library for this platform, if there is one, to
+     * the cache directory. Returns the extracted file, or null if the jar
+     * doesn't contain a library for this platform.
+     */
+    private static File extract()
+    {
+        String platform = platform();
+        String[] names = libraryFileNames();
+
+        for (String name : names)
+        {
+            String resource = "/native/" + platform + "/" + name;
+            URL url = NativeLibrary.class.getResource(resource);
+            if (url == null)
+                continue;
+
+            try
+            {
+                // The jar carries the library's SHA-256 digest, computed
+                // at build time, next to the library.
+                String digest = readDigest(resource + ".sha256");
+                if (digest == null)
+                    continue;
+
+                File dir = new File(new File(cacheDirectory(), platform),
+                                    digest);
+                File lib = new File(dir, name);
+
+                // Reuse a previously extracted copy of this very build.
+                // Copies are only ever renamed into place complete.
+                if (lib.isFile())
+                    return lib;
+
+                // Another process may have created the directory at the
+                // same time, in which case mkdirs() fails.
+                if ((! dir.mkdirs()) && (! dir.isDirectory()))
+                    return null;
+
+                // Extract to a temporary file first, then rename it, so
+                // that concurrent first runs never see a partial library.
+                File tmp = File.createTempFile(name, ".tmp", dir);
+                InputStream in = url.openStream();
+                try
+                {
+                    OutputStream out = new FileOutputStream(tmp);
+                    try
+                    {
+                        byte[] buf = new byte[8192];
+                        int n;
+                        while ((n = in.read(buf)) > 0)
+                            out.write(buf, 0, n);
+                    }
+
+                    finally
+                    {
+                        out.close();
+                    }
+                }
+
+                finally
+                {
+                    in.close();
+                }
+
+                if ((! tmp.renameTo(lib)) && (! lib.isFile()))
+                {
+                    tmp.delete();
+                    return null;
+                }
+
+                tmp.delete();
+                return lib;
+            }
+
+            catch (IOException ex)
+            {
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Read the hex digest stored in a resource. Returns null if there's no
+     * such resource, or if it doesn't hold a plausible digest.
+     */
+    private static String readDigest(String resource)
+        throws IOException
+    {
+        InputStream in = NativeLibrary.class.getResourceAsStream(resource);
+        if (in == null)
+            return null;
+
+        String digest;
+        try
+        {
+            BufferedReader r =
+                new BufferedReader(new InputStreamReader(in, "US-ASCII"));
+            digest = r.readLine();
+        }
+
+        finally
+        {
+            in.close();
+        }
+
+        if (digest == null)
+            return null;
+
+        digest = digest.trim().toLowerCase();
+        if (! digest.matches("[0-9a-f]{64}"))
+            return null;
+
+        return digest;
+    }
+
+    private static String[] libraryFileNames()
+    {
+        String mapped = System.mapLibraryName(LIBRARY_NAME);
+
+        // Older Mac OS X builds of this library use the .jnilib suffix.
+        String jnilib = "lib" + LIBRARY_NAME + ".jnilib";
+        if (mapped.equals(jnilib))
+            return new String[] {mapped};
+
+        return new String[] {mapped, jnilib};
+    }
+
+    private static File cacheDirectory()
+    {
+        String dir = System.getProperty(CACHE_DIR_PROPERTY);
+        if (dir != null)
+            return new File(dir);
+
+        return new File(System.getProperty("user.home") +
+                        File.separator + ".cache" +
+                        File.separator + "javaeditline" +
+                        File.separator + EditLine.VERSION);
+    }
+}
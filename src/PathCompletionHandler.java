@@ -0,0 +1,669 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  http://opensource.org/licenses/bsd-license.php.
+
+  Copyright (c) 2010 Brian M. Clapper
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the names "clapper.org", "Java EditLine", nor the names of its
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+  POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+package org.clapper.editline;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>A {@link EditLine.CompletionHandler} that completes file system paths.
+ * The token being completed is treated as a path; the directory portion
+ * selects the directory to list, and the final component is the prefix
+ * that candidate names must start with. Directories are completed with a
+ * trailing separator, so that repeated completion descends into them.</p>
+ *
+ * <p>Directory listings are read with a NIO <tt>DirectoryStream</tt> and
+ * kept in a bounded, least-recently-used cache. A cached listing is reused
+ * until it is older than the configured time-to-live, so repeated
+ * completion in the same directory (the common case, when the user keeps
+ * pressing TAB) does not touch the file system at all. That matters a
+ * great deal on network file systems, where every directory read can
+ * stall.</p>
+ *
+ * <p>If a <tt>WatchService</tt> is enabled (see the constructor), cached
+ * directories are also registered with it, and a listing is dropped as soon
+ * as the directory changes. With a watch service, the time-to-live becomes
+ * an upper bound, rather than the only source of freshness. Not all file
+ * systems deliver change events (many network file systems don't), which
+ * is why the time-to-live always applies.</p>
+ *
+ * <p>Directories with more than <tt>maxCachedEntries</tt> entries are never
+ * cached in full. For those, the listing is filtered by prefix while it is
+ * being streamed, and only the matches are retained.</p>
+ *
+ * <p>Listings hold bare names. Whether a name is a directory (and so gets
+ * a trailing separator) is only checked for the names a completion
+ * actually returns, and only when there are at most
+ * <tt>MAX_CHECKED_MATCHES</tt> of them; the answer is remembered with the
+ * cached listing.</p>
+ *
+ * <p>Typical usage:</p>
+ *
+ * <blockquote><pre>
+ * EditLine el = EditLine.init("myprogram");
+ * PathCompletionHandler paths = new PathCompletionHandler();
+ * el.setCompletionHandler(paths);
+ * ...
+ * paths.close();
+ * el.cleanup();
+ * </pre></blockquote>
+ */
+public class PathCompletionHandler implements EditLine.CompletionHandler
+{
+    /*----------------------------------------------------------------------*\
+                            Constants
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Default time-to-live of a cached directory listing, in milliseconds.
+     */
+    public static final long DEFAULT_TTL_MILLIS = 5000;
+
+    /**
+     * Default maximum number of directories whose listings are cached.
+     */
+    public static final int DEFAULT_MAX_CACHED_DIRECTORIES = 64;
+
+    /**
+     * Default maximum number of entries in a directory, for that directory's
+     * listing to be cached.
+     */
+    public static final int DEFAULT_MAX_CACHED_ENTRIES = 4096;
+
+    /**
+     * The maximum number of matches for which a completion checks which
+     * ones are directories. Larger sets of matches are returned as bare
+     * names.
+     */
+    public static final int MAX_CHECKED_MATCHES = 32;
+
+    private static final String[] NO_COMPLETIONS = new String[0];
+
+    /*----------------------------------------------------------------------*\
+                            Instance Variables
+    \*----------------------------------------------------------------------*/
+
+    private final long ttlMillis;
+    private final int maxCachedEntries;
+    private final Map<Path, Listing> cache;
+    private final Map<WatchKey, Path> watchedDirectories =
+        new HashMap<WatchKey, Path>();
+    private WatchService watchService = null;
+    private Thread watchThread = null;
+
+    /*----------------------------------------------------------------------*\
+                               Inner Classes
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * A cached directory listing. Names are sorted. Whether a name is a
+     * directory is filled in lazily, as names are returned as completions.
+     */
+    private static class Listing
+    {
+        final String[] names;
+        final long loadedAt;
+        final WatchKey watchKey;
+        final Map<String, Boolean> isDirectory =
+            new HashMap<String, Boolean>();
+
+        Listing(String[] names, long loadedAt, WatchKey watchKey)
+        {
+            this.names = names;
+            this.loadedAt = loadedAt;
+            this.watchKey = watchKey;
+        }
+    }
+
+    /**
+     * Filters directory entries by name prefix while they are streamed.
+     */
+    private static class PrefixFilter implements DirectoryStream.Filter<Path>
+    {
+        private final String prefix;
+
+        PrefixFilter(String prefix)
+        {
+            this.prefix = prefix;
+        }
+
+        public boolean accept(Path entry)
+        {
+            Path name = entry.getFileName();
+            return (name != null) && name.toString().startsWith(prefix);
+        }
+    }
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Construct a new <tt>PathCompletionHandler</tt> with the default
+     * cache settings and no watch service.
+     */
+    public PathCompletionHandler()
+    {
+        this(DEFAULT_TTL_MILLIS,
+             DEFAULT_MAX_CACHED_DIRECTORIES,
+             DEFAULT_MAX_CACHED_ENTRIES,
+             false);
+    }
+
+    /**
+     * Construct a new <tt>PathCompletionHandler</tt>.
+     *
+     * @param ttlMillis         how long, in milliseconds, a cached directory
+     *                          listing remains valid. 0 disables caching.
+     * @param maxDirectories    the maximum number of directory listings to
+     *                          cache. The least recently used listing is
+     *                          discarded when the cache is full.
+     * @param maxCachedEntries  directories with more entries than this are
+     *                          not cached; they're filtered by prefix while
+     *                          being read, instead.
+     * @param watch             whether to invalidate cached listings via a
+     *                          <tt>WatchService</tt>. If the default file
+     *                          system doesn't support watching, this
+     *                          parameter is silently ignored.
+     */
+    public PathCompletionHandler(long ttlMillis,
+                                 final int maxDirectories,
+                                 int maxCachedEntries,
+                                 boolean watch)
+    {
+        assert(ttlMillis >= 0);
+        assert(maxDirectories > 0);
+        assert(maxCachedEntries > 0);
+
+        this.ttlMillis = ttlMillis;
+        this.maxCachedEntries = maxCachedEntries;
+        this.cache = new LinkedHashMap<Path, Listing>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<Path, Listing> e)
+            {
+                boolean remove = size() > maxDirectories;
+                if (remove)
+                    unwatch(e.getValue());
+                return remove;
+            }
+        };
+
+        if (watch && (ttlMillis > 0))
+            startWatching();
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Complete a path. Called by <tt>EditLine</tt> in response to a
+     * completion request.
+     *
+     * @param token  the token being completed. Can be "".
+     * @param line   the current line being completed
+     * @param cursor index where cursor is, within the line
+     *
+     * @return the matching paths, or null for none
+     */
+    public String[] complete(String token, String line, int cursor)
+    {
+        int sep = token.lastIndexOf('/');
+        String dirPart = (sep < 0) ? "" : token.substring(0, sep + 1);
+        String prefix = token.substring(sep + 1);
+
+        Path dir;
+        try
+        {
+            dir = directoryFor(dirPart);
+        }
+
+        catch (RuntimeException ex)
+        {
+            // Invalid path syntax. Nothing to complete.
+            return null;
+        }
+
+        String[] names = matchingNames(dir, prefix);
+        if (names.length == 0)
+            return null;
+
+        boolean check = (names.length <= MAX_CHECKED_MATCHES);
+        String[] result = new String[names.length];
+        for (int i = 0; i < names.length; i++)
+        {
+            result[i] = dirPart + names[i];
+            if (check && isDirectory(dir, names[i]))
+                result[i] = result[i] + "/";
+        }
+
+        return result;
+    }
+
+    /**
+     * Discard all cached directory listings.
+     */
+    public synchronized void flush()
+    {
+        for (Listing listing : cache.values())
+            unwatch(listing);
+        cache.clear();
+    }
+
+    /**
+     * Discard all cached directory listings and stop the watch service, if
+     * there is one. The handler remains usable after this call, but it will
+     * rely solely on the time-to-live to expire cached listings.
+     */
+    public void close()
+    {
+        WatchService ws;
+        Thread t;
+
+        synchronized (this)
+        {
+            flush();
+            ws = watchService;
+            t = watchThread;
+            watchService = null;
+            watchThread = null;
+        }
+
+        if (ws != null)
+        {
+            try
+            {
+                ws.close();
+            }
+
+            catch (IOException ex)
+            {
+            }
+        }
+
+        if (t != null)
+            t.interrupt();
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private Path directoryFor(String dirPart)
+    {
+        Path dir;
+
+        if (dirPart.length() == 0)
+            dir = Paths.get("");
+
+        else if (dirPart.startsWith("~/"))
+            dir = Paths.get(System.getProperty("user.home"),
+                            dirPart.substring(1));
+
+        else
+            dir = Paths.get(dirPart);
+
+        return dir.toAbsolutePath().normalize();
+    }
+
+    private String[] matchingNames(Path dir, String prefix)
+    {
+        String[] names = cachedNames(dir);
+
+        if (names == null)
+        {
+            names = readDirectory(dir, prefix);
+            if (names == null)
+                return NO_COMPLETIONS;
+        }
+
+        return filter(names, prefix);
+    }
+
+    /**
+     * Determine whether a name in a directory is itself a directory,
+     * consulting (and updating) the cached listing, if there is one.
+     */
+    private boolean isDirectory(Path dir, String name)
+    {
+        Listing listing;
+        synchronized (this)
+        {
+            listing = cache.get(dir);
+            if (listing != null)
+            {
+                Boolean known = listing.isDirectory.get(name);
+                if (known != null)
+                    return known.booleanValue();
+            }
+        }
+
+        boolean result = Files.isDirectory(dir.resolve(name));
+        if (listing != null)
+        {
+            synchronized (this)
+            {
+                listing.isDirectory.put(name, Boolean.valueOf(result));
+            }
+        }
+
+        return result;
+    }
+
+    private synchronized String[] cachedNames(Path dir)
+    {
+        String[] result = null;
+        Listing listing = cache.get(dir);
+
+        if (listing != null)
+        {
+            long age = System.currentTimeMillis() - listing.loadedAt;
+            if (age <= ttlMillis)
+                result = listing.names;
+
+            else
+            {
+                cache.remove(dir);
+                unwatch(listing);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Read a directory in a single pass. While the directory is small enough
+     * to cache, every name is kept; once it grows past that limit, only the
+     * names matching the prefix are kept, and nothing is cached. Returns the
+     * full listing or the matches, as appropriate, or null if the directory
+     * can't be read.
+     */
+    private String[] readDirectory(Path dir, String prefix)
+    {
+        List<String> names = new ArrayList<String>();
+        boolean cacheable = (ttlMillis > 0);
+        DirectoryStream<Path> ds = null;
+
+        // Watch the directory before reading it, so that no change made
+        // while it's being read can be missed.
+        WatchKey key = cacheable ? watch(dir) : null;
+
+        try
+        {
+            if (cacheable)
+                ds = Files.newDirectoryStream(dir);
+            else
+                ds = Files.newDirectoryStream(dir, new PrefixFilter(prefix));
+
+            for (Path entry : ds)
+            {
+                String name = entry.getFileName().toString();
+                if (cacheable && (names.size() >= maxCachedEntries))
+                {
+                    // Too big to cache. Keep only the matches from here on.
+                    cacheable = false;
+                    names = filter(names, prefix);
+                }
+
+                if ((! cacheable) && (! name.startsWith(prefix)))
+                    continue;
+
+                names.add(name);
+            }
+        }
+
+        catch (IOException ex)
+        {
+            cacheable = false;
+            names = null;
+        }
+
+        catch (RuntimeException ex)
+        {
+            // DirectoryIteratorException, SecurityException, etc.
+            cacheable = false;
+            names = null;
+        }
+
+        finally
+        {
+            if (ds != null)
+            {
+                try
+                {
+                    ds.close();
+                }
+
+                catch (IOException ex)
+                {
+                }
+            }
+        }
+
+        if (! cacheable)
+            unwatch(key);
+
+        if (names == null)
+            return null;
+
+        Collections.sort(names);
+        String[] result = names.toArray(new String[names.size()]);
+        if (cacheable)
+            cache(dir, result, key);
+
+        return result;
+    }
+
+    private List<String> filter(List<String> names, String prefix)
+    {
+        List<String> result = new ArrayList<String>();
+        for (String name : names)
+        {
+            if (name.startsWith(prefix))
+                result.add(name);
+        }
+
+        return result;
+    }
+
+    private String[] filter(String[] sortedNames, String prefix)
+    {
+        if (prefix.length() == 0)
+        {
+            // Don't offer hidden files unless asked for explicitly.
+            List<String> visible = new ArrayList<String>();
+            for (String name : sortedNames)
+            {
+                if (! name.startsWith("."))
+                    visible.add(name);
+            }
+
+            return visible.toArray(new String[visible.size()]);
+        }
+
+        // The names are sorted, so the matches are contiguous.
+        int lo = 0;
+        int hi = sortedNames.length;
+        while (lo < hi)
+        {
+            int mid = (lo + hi) >>> 1;
+            if (sortedNames[mid].compareTo(prefix) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        int end = lo;
+        while ((end < sortedNames.length) &&
+               sortedNames[end].startsWith(prefix))
+            end++;
+
+        String[] result = new String[end - lo];
+        System.arraycopy(sortedNames, lo, result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Register a directory with the watch service, if there is one.
+     * Returns the watch key, or null.
+     */
+    private synchronized WatchKey watch(Path dir)
+    {
+        WatchKey key = null;
+
+        if (watchService != null)
+        {
+            try
+            {
+                key = dir.register(watchService,
+                                   StandardWatchEventKinds.ENTRY_CREATE,
+                                   StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirectories.put(key, dir);
+            }
+
+            catch (IOException ex)
+            {
+                key = null;
+            }
+
+            catch (RuntimeException ex)
+            {
+                // Unsupported, or the watch service was closed.
+                key = null;
+            }
+        }
+
+        return key;
+    }
+
+    private synchronized void cache(Path dir, String[] names, WatchKey key)
+    {
+        // If the directory changed while it was being read, the watcher
+        // has already cancelled the key. Don't cache what may be stale.
+        if ((key != null) && (! key.isValid()))
+            return;
+
+        Listing old = cache.put(dir,
+                                new Listing(names,
+                                            System.currentTimeMillis(),
+                                            key));
+        if ((old != null) && (old.watchKey != key))
+            unwatch(old);
+    }
+
+    private synchronized void unwatch(WatchKey key)
+    {
+        if (key != null)
+        {
+            watchedDirectories.remove(key);
+            key.cancel();
+        }
+    }
+
+    private void unwatch(Listing listing)
+    {
+        if (listing != null)
+            unwatch(listing.watchKey);
+    }
+
+    private synchronized void invalidate(WatchKey key)
+    {
+        Path dir = watchedDirectories.remove(key);
+        if (dir != null)
+            cache.remove(dir);
+        key.cancel();
+    }
+
+    private void startWatching()
+    {
+        try
+        {
+            watchService = FileSystems.getDefault().newWatchService();
+        }
+
+        catch (IOException ex)
+        {
+            watchService = null;
+            return;
+        }
+
+        catch (UnsupportedOperationException ex)
+        {
+            watchService = null;
+            return;
+        }
+
+        final WatchService ws = watchService;
+        watchThread = new Thread("PathCompletionHandler watcher")
+        {
+            public void run()
+            {
+                try
+                {
+                    for (;;)
+                    {
+                        WatchKey key = ws.take();
+                        key.pollEvents();
+                        invalidate(key);
+                    }
+                }
+
+                catch (InterruptedException ex)
+                {
+                }
+
+                catch (ClosedWatchServiceException ex)
+                {
+                }
+            }
+        };
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+}
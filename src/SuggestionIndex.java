@@ -0,0 +1,332 @@
+/*---------------------------------------------------------------------------*\
+  This software is released under a BSD license, adapted from
+  http://opensource.org/licenses/bsd-license.php.
+
+  Copyright (c) 2010 Brian M. Clapper
+  All rights reserved.
+
+  Redistribution and use in source and binary forms, with or without
+  modification, are permitted provided that the following conditions are met:
+
+  * Redistributions of source code must retain the above copyright notice,
+    this list of conditions and the following disclaimer.
+
+  * Redistributions in binary form must reproduce the above copyright notice,
+    this list of conditions and the following disclaimer in the documentation
+    and/or other materials provided with the distribution.
+
+  * Neither the names "clapper.org", "Java EditLine", nor the names of its
+    contributors may be used to endorse or promote products derived from
+    this software without specific prior written permission.
+
+  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+  AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+  IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+  ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+  LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+  CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+  SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+  INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+  CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+  ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+  POSSIBILITY OF SUCH DAMAGE.
+\*---------------------------------------------------------------------------*/
+
+
+package org.clapper.editline;
+
+import java.nio.charset.Charset;
+
+/**
+ * <p>A prefix index of candidate lines, used by <tt>EditLine</tt> to
+ * suggest the most likely completion of the line being typed. Each time a
+ * line is added, its frequency goes up by one; the suggestion for a prefix
+ * is the most frequently added line that starts with it, with ties going
+ * to the most recently added line.</p>
+ *
+ * <p>The index is a trie over the UTF-8 bytes of the candidates, in which
+ * every node records the best candidate beneath it. Adding a line updates
+ * only the nodes along its path; looking up a prefix is a walk down the
+ * trie, and successive lookups of a growing prefix (i.e., the user typing
+ * at the end of the line) resume where the previous lookup left off.
+ * Lookups allocate nothing.</p>
+ *
+ * <p>When suggestions are enabled on an <tt>EditLine</tt> instance (see
+ * <tt>EditLine.setSuggestionsEnabled()</tt>), every line passed to
+ * <tt>addToHistory()</tt> is added to its index, as are the lines produced
+ * by the completions the instance's completion handler returns. Callers
+ * may add other candidates, such as command names, via
+ * {@link #add(String, int)}.</p>
+ */
+public class SuggestionIndex
+{
+    /*----------------------------------------------------------------------*\
+                            Constants
+    \*----------------------------------------------------------------------*/
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The default maximum number of trie nodes.
+     */
+    public static final int DEFAULT_MAX_NODES = 256 * 1024;
+
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+
+    /*----------------------------------------------------------------------*\
+                            Instance Variables
+    \*----------------------------------------------------------------------*/
+
+    private final int maxNodes;
+    private int totalNodes = 0;
+
+    /* The trie, as parallel arrays indexed by node. */
+    private byte[] label = new byte[1024];
+    private int[] parent = new int[1024];
+    private int[] firstChild = new int[1024];
+    private int[] nextSibling = new int[1024];
+    private int[] count = new int[1024];   // times added, if a candidate
+    private int[] best = new int[1024];    // best candidate in the subtree
+
+    /* State of the previous lookup, so that it can be resumed. */
+    private byte[] lastPrefix = new byte[256];
+    private int lastLen = 0;
+    private int lastNode = ROOT;
+
+    /*----------------------------------------------------------------------*\
+                                Constructor
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Create an empty index with the default size limit.
+     */
+    public SuggestionIndex()
+    {
+        this(DEFAULT_MAX_NODES);
+    }
+
+    /**
+     * Create an empty index.
+     *
+     * @param maxNodes  the maximum number of trie nodes (roughly, the total
+     *                  number of distinct bytes in all prefixes). Once the
+     *                  index is full, new lines are no longer added,
+     *                  though lines already in the index still gain
+     *                  frequency.
+     */
+    public SuggestionIndex(int maxNodes)
+    {
+        assert(maxNodes > 0);
+        this.maxNodes = maxNodes;
+        newNode(NONE, (byte) 0);
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Public Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Add a line to the index, or increase its frequency by one if it's
+     * already there.
+     *
+     * @param line  the line
+     */
+    public void add(String line)
+    {
+        add(line, 1);
+    }
+
+    /**
+     * Add a line to the index with a given weight, or increase its
+     * frequency by that weight if it's already there.
+     *
+     * @param line    the line
+     * @param weight  how much to add to the line's frequency. Must be
+     *                positive.
+     */
+    public synchronized void add(String line, int weight)
+    {
+        assert(weight > 0);
+        byte[] bytes = line.getBytes(UTF8);
+        if (bytes.length == 0)
+            return;
+
+        int node = ROOT;
+        int i = 0;
+        for (; i < bytes.length; i++)
+        {
+            int child = findChild(node, bytes[i]);
+            if (child == NONE)
+                break;
+            node = child;
+        }
+
+        if (i < bytes.length)
+        {
+            // New candidate. Add the rest of its path, if there's room.
+            if (totalNodes + (bytes.length - i) > maxNodes)
+                return;
+
+            for (; i < bytes.length; i++)
+                node = newNode(node, bytes[i]);
+        }
+
+        count[node] += weight;
+        if (count[node] < 0)
+            count[node] = Integer.MAX_VALUE;
+
+        // Only this candidate's count changed, so only the nodes on its path
+        // can have a new best candidate.
+        for (int n = node; n != NONE; n = parent[n])
+        {
+            int b = best[n];
+            if ((b == NONE) || (count[node] >= count[b]))
+                best[n] = node;
+        }
+
+        lastLen = 0;
+        lastNode = ROOT;
+    }
+
+    /**
+     * Get the suggestion for a prefix.
+     *
+     * @param prefix  the prefix
+     *
+     * @return the rest of the suggested line (i.e., the part after the
+     *         prefix), or null if there is no suggestion
+     */
+    public String suggest(String prefix)
+    {
+        byte[] bytes = prefix.getBytes(UTF8);
+        byte[] out = new byte[4096];
+        int n = suggest(bytes, bytes.length, out);
+        return (n <= 0) ? null : new String(out, 0, n, UTF8);
+    }
+
+    /*----------------------------------------------------------------------*\
+                          Package-private Methods
+    \*----------------------------------------------------------------------*/
+
+    /**
+     * Get the suggestion for a UTF-8 encoded prefix, without allocating.
+     * The remainder of the suggested line is written to <tt>out</tt>.
+     * Returns the number of bytes written: 0 if there's no suggestion, or
+     * if it doesn't fit.
+     */
+    synchronized int suggest(byte[] prefix, int len, byte[] out)
+    {
+        int node = ROOT;
+        int start = 0;
+
+        // Resume from the previous lookup if this prefix extends it.
+        if ((len >= lastLen) && (lastLen > 0))
+        {
+            int i = 0;
+            while ((i < lastLen) && (prefix[i] == lastPrefix[i]))
+                i++;
+
+            if (i == lastLen)
+            {
+                node = lastNode;
+                start = lastLen;
+            }
+        }
+
+        for (int i = start; (i < len) && (node != NONE); i++)
+            node = findChild(node, prefix[i]);
+
+        if (len <= lastPrefix.length)
+        {
+            System.arraycopy(prefix, start, lastPrefix, start, len - start);
+            lastLen = len;
+            lastNode = node;
+        }
+
+        else
+        {
+            lastLen = 0;
+            lastNode = ROOT;
+        }
+
+        if ((node == NONE) || (best[node] == NONE))
+            return 0;
+
+        // Walk up from the best candidate to this node, to find the length
+        // of the remainder, and then again to copy it out.
+        int total = 0;
+        for (int n = best[node]; n != node; n = parent[n])
+            total++;
+
+        if ((total == 0) || (total > out.length))
+            return 0;
+
+        int i = total;
+        for (int n = best[node]; n != node; n = parent[n])
+            out[--i] = label[n];
+
+        return total;
+    }
+
+    /*----------------------------------------------------------------------*\
+                              Private Methods
+    \*----------------------------------------------------------------------*/
+
+    private int findChild(int node, byte b)
+    {
+        for (int c = firstChild[node]; c != NONE; c = nextSibling[c])
+        {
+            if (label[c] == b)
+                return c;
+        }
+
+        return NONE;
+    }
+
+    private int newNode(int parentNode, byte b)
+    {
+        if (totalNodes == label.length)
+        {
+            int size = label.length * 2;
+            label = copyOf(label, size);
+            parent = copyOf(parent, size);
+            firstChild = copyOf(firstChild, size);
+            nextSibling = copyOf(nextSibling, size);
+            count = copyOf(count, size);
+            best = copyOf(best, size);
+        }
+
+        int node = totalNodes++;
+        label[node] = b;
+        parent[node] = parentNode;
+        firstChild[node] = NONE;
+        count[node] = 0;
+        best[node] = NONE;
+
+        if (parentNode == NONE)
+            nextSibling[node] = NONE;
+
+        else
+        {
+            nextSibling[node] = firstChild[parentNode];
+            firstChild[parentNode] = node;
+        }
+
+        return node;
+    }
+
+    private static byte[] copyOf(byte[] a, int size)
+    {
+        byte[] result = new byte[size];
+        System.arraycopy(a, 0, result, 0, a.length);
+        return result;
+    }
+
+    private static int[] copyOf(int[] a, int size)
+    {
+        int[] result = new int[size];
+        System.arraycopy(a, 0, result, 0, a.length);
+        return result;
+    }
+}
@@ -47,16 +47,18 @@
 
 #define PROMPT_MAX 128
 
+/*
+ * Size of each half of the buffer shared with EditLine.suggest(). Must
+ * match EditLine.SUGGESTION_MAX.
+ */
+#define SUGGESTION_MAX 2048
+
+/* Delimits terminal escape sequences in the right prompt. */
+#define RPROMPT_LITERAL '\1'
+
 #define elPointer2jlong(handle) ((jlong) ((long) handle)) 
 #define jlong2elPointer(jl) ((EditLine *) ((long) jl))
 
-typedef struct _SimpleStringList
-{
-    const char *string;
-    struct _SimpleStringList *next;
-}
-SimpleStringList;
-
 typedef struct _jEditLineData
 {
     char prompt[PROMPT_MAX];
@@ -66,7 +68,11 @@ typedef struct _jEditLineData
     jobject javaEditLine;
     jmethodID handleCompletionMethodID;
     jmethodID showCompletionsMethodID;
+    jmethodID suggestMethodID;
     jint max_history_size;
+    unsigned char *suggestion_buffer;
+    char suggestion[SUGGESTION_MAX];
+    char rprompt[SUGGESTION_MAX + 16];
 }
 jEditLineData;
 
@@ -156,6 +162,7 @@ static void set_prompt(EditLine *el, const char *new_prompt)
 {
     jEditLineData *data = get_data(el);
     strncpy(data->prompt, new_prompt, PROMPT_MAX - 1);
+    data->prompt[PROMPT_MAX - 1] = '\0';
 }
 
 static const char *get_prompt(EditLine *el)
@@ -164,6 +171,110 @@ static const char *get_prompt(EditLine *el)
     return data->prompt;
 }
 
+/**
+ * Right prompt function. When suggestions are enabled, this is where the
+ * suggestion for the current line is computed, since the right prompt is
+ * redrawn on every redisplay. The line is copied into the first half of
+ * the buffer shared with Java, and EditLine.suggest() writes the
+ * suggestion into the second half. The suggestion is only shown when the
+ * cursor is at the end of the line.
+ */
+static char *get_rprompt(EditLine *el)
+{
+    jEditLineData *data = get_data(el);
+    const LineInfo *lineInfo = el_line(el);
+    int len;
+
+    data->suggestion[0] = '\0';
+    data->rprompt[0] = '\0';
+
+    if ((data->suggestion_buffer == NULL) || (lineInfo == NULL))
+        return data->rprompt;
+
+    len = (int) (lineInfo->lastchar - lineInfo->buffer);
+    if ((len > 0) &&
+        (len <= SUGGESTION_MAX) &&
+        (lineInfo->cursor == lineInfo->lastchar))
+    {
+        JNIEnv *env = data->env;
+        jint n;
+
+        memcpy(data->suggestion_buffer, lineInfo->buffer, len);
+        n = (*env)->CallIntMethod(env, data->javaEditLine,
+                                  data->suggestMethodID, (jint) len);
+        if ((*env)->ExceptionCheck(env))
+        {
+            /* Can't propagate it from here. Show no suggestion. */
+            (*env)->ExceptionClear(env);
+            n = 0;
+        }
+
+        if ((n > 0) && (n < SUGGESTION_MAX))
+        {
+            memcpy(data->suggestion,
+                   data->suggestion_buffer + SUGGESTION_MAX,
+                   n);
+            data->suggestion[n] = '\0';
+#ifdef EL_RPROMPT_ESC
+            snprintf(data->rprompt, sizeof(data->rprompt),
+                     "%c\033[2m%c%s%c\033[0m%c",
+                     RPROMPT_LITERAL, RPROMPT_LITERAL,
+                     data->suggestion,
+                     RPROMPT_LITERAL, RPROMPT_LITERAL);
+#else
+            strncpy(data->rprompt, data->suggestion, sizeof(data->rprompt));
+            data->rprompt[sizeof(data->rprompt) - 1] = '\0';
+#endif
+        }
+    }
+
+    return data->rprompt;
+}
+
+/**
+ * Inserts a typed character, like ed-insert, but forces a full redisplay,
+ * so that the suggestion (in the right prompt) is recomputed. Bound to
+ * the printable characters while suggestions are enabled. Editline's
+ * public API exposes neither the repeat count nor the overwrite mode, so
+ * the character is always inserted once, at the cursor.
+ */
+static unsigned char self_insert(EditLine *el, int ch)
+{
+    char s[2];
+    s[0] = (char) ch;
+    s[1] = '\0';
+
+    if (el_insertstr(el, s) == -1)
+        return CC_ERROR;
+
+    return CC_REFRESH;
+}
+
+/**
+ * Accepts the current suggestion, if the cursor is at the end of the line
+ * and there is one; otherwise, moves the cursor right, like ed-next-char.
+ * Bound to the right arrow key while suggestions are enabled.
+ */
+static unsigned char accept_suggestion(EditLine *el, int ch)
+{
+    jEditLineData *data = get_data(el);
+    const LineInfo *lineInfo = el_line(el);
+
+    if (lineInfo->cursor < lineInfo->lastchar)
+    {
+        el_cursor(el, 1);
+        return CC_CURSOR;
+    }
+
+    if (data->suggestion[0] == '\0')
+        return CC_ERROR;
+
+    if (el_insertstr(el, data->suggestion) == -1)
+        return CC_ERROR;
+
+    return CC_REFRESH;
+}
+
 static void replace_token(EditLine *el, int token_len, const char *new_token)
 {
     el_deletestr(el, token_len);
@@ -298,18 +409,209 @@ static unsigned char complete(EditLine *el, int ch)
     return result;
 }
 
+/**
+ * Get the number of entries currently in a history.
+ */
+static int history_count(History *h)
+{
+    HistEvent ev;
+    if (history(h, &ev, H_GETSIZE) == -1)
+        return 0;
+    return ev.num;
+}
+
+/**
+ * Copy a range of history entries into a new Java string array, oldest
+ * first. Index 0 is the oldest entry. The history is walked from whichever
+ * end is closer to the range, and the array is filled in place, so only
+ * the requested entries are visited and no intermediate copies are made.
+ * The range is clipped to the history's bounds.
+ */
+static jobjectArray history_range(JNIEnv *env, History *h, int from, int count)
+{
+    int total = history_count(h);
+    HistEvent ev;
+    int rc;
+    int i;
+
+    if (from < 0)
+        from = 0;
+    if (from > total)
+        from = total;
+    if (count > total - from)
+        count = total - from;
+    if (count < 0)
+        count = 0;
+
+    jclass stringClass = (*env)->FindClass(env, "java/lang/String");
+    jobjectArray result = (*env)->NewObjectArray(env, count, stringClass, NULL);
+    if ((result == NULL) || (count == 0))
+        return result;
+
+    if (from >= total - (from + count))
+    {
+        /*
+          The range is closer to the newest entry. H_FIRST is the newest;
+          H_NEXT moves toward older entries. Fill the array backwards.
+        */
+        int skip = total - (from + count);
+        rc = history(h, &ev, H_FIRST);
+        for (i = 0; (rc != -1) && (i < skip); i++)
+            rc = history(h, &ev, H_NEXT);
+
+        for (i = count - 1; (rc != -1) && (i >= 0); i--)
+        {
+            jstring js = (*env)->NewStringUTF(env, ev.str);
+            (*env)->SetObjectArrayElement(env, result, i, js);
+            (*env)->DeleteLocalRef(env, js);
+            rc = history(h, &ev, H_NEXT);
+        }
+    }
+
+    else
+    {
+        /*
+          The range is closer to the oldest entry. H_LAST is the oldest;
+          H_PREV moves toward newer entries.
+        */
+        rc = history(h, &ev, H_LAST);
+        for (i = 0; (rc != -1) && (i < from); i++)
+            rc = history(h, &ev, H_PREV);
+
+        for (i = 0; (rc != -1) && (i < count); i++)
+        {
+            jstring js = (*env)->NewStringUTF(env, ev.str);
+            (*env)->SetObjectArrayElement(env, result, i, js);
+            (*env)->DeleteLocalRef(env, js);
+            rc = history(h, &ev, H_PREV);
+        }
+    }
+
+    return result;
+}
+
+/**
+ * Run a batch of Editline commands through el_parse(). The commands come
+ * from an EditLineConfig: "packed" holds every argument of every command,
+ * NUL-terminated, back to back, and "counts" holds the number of arguments
+ * in each command. Both arrays are copied out of the JVM once; the argument
+ * vectors then point straight into the copy.
+ */
+static void parse_packed(JNIEnv *env,
+                         EditLine *el,
+                         jbyteArray packed,
+                         jintArray counts)
+{
+    jsize total_bytes = (*env)->GetArrayLength(env, packed);
+    jsize total_commands = (*env)->GetArrayLength(env, counts);
+    char *buf;
+    jint *argc;
+    const char **argv = NULL;
+    int max_argc = 0;
+    int i;
+
+    if (total_commands == 0)
+        return;
+
+    buf = (char *) malloc(total_bytes + 1);
+    argc = (jint *) malloc(total_commands * sizeof(jint));
+    if ((buf != NULL) && (argc != NULL))
+    {
+        (*env)->GetByteArrayRegion(env, packed, 0, total_bytes, (jbyte *) buf);
+        (*env)->GetIntArrayRegion(env, counts, 0, total_commands, argc);
+        buf[total_bytes] = '\0';
+
+        for (i = 0; i < total_commands; i++)
+            max_argc = (argc[i] > max_argc) ? argc[i] : max_argc;
+
+        argv = (const char **) malloc((max_argc + 1) * sizeof(const char *));
+    }
+
+    if (argv == NULL)
+    {
+        jclass exc = (*env)->FindClass(env, "java/lang/OutOfMemoryError");
+        (*env)->ThrowNew(env, exc, "unable to allocate Editline commands");
+    }
+
+    else
+    {
+        const char *p = buf;
+        const char *end = buf + total_bytes;
+
+        for (i = 0; i < total_commands; i++)
+        {
+            int j;
+            for (j = 0; (j < argc[i]) && (p < end); j++)
+            {
+                argv[j] = p;
+                p += strlen(p) + 1;
+            }
+
+            if (j < argc[i])
+                break; /* Truncated input; can't happen. */
+
+            argv[j] = NULL;
+            el_parse(el, argc[i], argv);
+        }
+    }
+
+    free(argv);
+    free(argc);
+    free(buf);
+}
+
 /*
  * Class:  org_clapper_editline_EditLine
- * Method: static long n_el_init(String program, EditLine javaEditLine)
+ * Method: static long n_el_create(EditLine javaEditLine,
+ *                                 String program,
+ *                                 boolean source,
+ *                                 String initPath,
+ *                                 byte[] configArgs,
+ *                                 int[] configArgCounts,
+ *                                 String prompt,
+ *                                 int historySize,
+ *                                 boolean historyUnique,
+ *                                 byte[] commandArgs,
+ *                                 int[] commandArgCounts)
+ *
+ * Creates and fully configures an Editline instance in one call: sources
+ * the initialization file (if "source" is set), runs the packed
+ * configuration commands in its place (see parse_packed()), sets the
+ * prompt and history parameters, binds TAB to completion and, finally,
+ * runs the packed commands that were queued via invokeCommand().
  */
-JNIEXPORT jlong JNICALL Java_org_clapper_editline_EditLine_n_1el_1init
-    (JNIEnv *env, jclass cls, jstring program, jobject javaEditLine)
+JNIEXPORT jlong JNICALL Java_org_clapper_editline_EditLine_n_1el_1create
+    (JNIEnv *env,
+     jclass cls,
+     jobject javaEditLine,
+     jstring program,
+     jboolean source,
+     jstring initPath,
+     jbyteArray configArgs,
+     jintArray configArgCounts,
+     jstring prompt,
+     jint historySize,
+     jboolean historyUnique,
+     jbyteArray commandArgs,
+     jintArray commandArgCounts)
 {
     const char *cProgram = (*env)->GetStringUTFChars(env, program, NULL);
     if (cProgram == NULL)
     {
         /* OutOfMemoryError already thrown */
-        return;
+        return 0;
+    }
+
+    const char *cPath = NULL;
+    if (initPath != NULL)
+    {
+        cPath = (*env)->GetStringUTFChars(env, initPath, NULL);
+        if (cPath == NULL)
+        {
+            /* OutOfMemoryError already thrown */
+            (*env)->ReleaseStringUTFChars(env, program, cProgram);
+            return 0;
+        }
     }
 
     jEditLineData *data = (jEditLineData*) malloc(sizeof(jEditLineData));
@@ -324,57 +626,70 @@ JNIEXPORT jlong JNICALL Java_org_clapper_editline_EditLine_n_1el_1init
     else
     {
         EditLine *el = el_init(cProgram, stdin, stdout, stderr);
+        HistEvent ev;
         data->history = history_init();
 
         data->env = env;
         data->javaClass = (*env)->NewGlobalRef(env, cls);
         data->javaEditLine = (*env)->NewGlobalRef(env, javaEditLine);
-        data->max_history_size = 0;
+        data->max_history_size = historySize;
+        data->prompt[0] = '\0';
         data->handleCompletionMethodID = (*env)->GetMethodID(
             env, cls, "handleCompletion",
             "(Ljava/lang/String;Ljava/lang/String;I)[Ljava/lang/String;");
         data->showCompletionsMethodID = (*env)->GetMethodID(
             env, cls, "showCompletions",
             "([Ljava/lang/String;)V");
+        data->suggestMethodID = (*env)->GetMethodID(
+            env, cls, "suggest", "(I)I");
+        data->suggestion_buffer = NULL;
+        data->suggestion[0] = '\0';
+        data->rprompt[0] = '\0';
+        history(data->history, &ev, H_SETSIZE, (int) historySize);
+        history(data->history, &ev, H_SETUNIQUE, historyUnique ? 1 : 0);
         el_set(el, EL_ADDFN, "ed-complete", "Complete", complete);
+        el_set(el, EL_ADDFN, "java-self-insert",
+               "Insert character and update the suggestion", self_insert);
+        el_set(el, EL_ADDFN, "java-accept-suggestion",
+               "Accept the suggestion, or move right", accept_suggestion);
         el_set(el, EL_CLIENTDATA, (void *) data);
         el_set(el, EL_PROMPT, get_prompt);
+#ifdef EL_RPROMPT_ESC
+        el_set(el, EL_RPROMPT_ESC, get_rprompt, RPROMPT_LITERAL);
+#else
+        el_set(el, EL_RPROMPT, get_rprompt);
+#endif
         el_set(el, EL_HIST, history, data->history);
         el_set(el, EL_SIGNAL, 1);
-        handle = elPointer2jlong(el);
-    }
 
-    (*env)->ReleaseStringUTFChars(env, program, cProgram);
-    return handle;
-}
-
-/*
- * Class:  org_clapper_editline_EditLine
- * Method: static void n_el_source(long handle, String path)
- */
-JNIEXPORT void JNICALL Java_org_clapper_editline_EditLine_n_1el_1source
-    (JNIEnv *env, jclass cls, jlong handle, jstring javaPath)
-{
-    EditLine *el = jlong2elPointer(handle);
-    if (javaPath == NULL)
-        el_source(el, NULL);
+        if (source)
+            el_source(el, cPath);
+        else
+            parse_packed(env, el, configArgs, configArgCounts);
 
-    else
-    {
-        const char *path = (*env)->GetStringUTFChars(env, javaPath, NULL);
-        if (path == NULL)
+        if (prompt != NULL)
         {
-            /* OutOfMemoryError already thrown */
+            const char *cPrompt = (*env)->GetStringUTFChars(env, prompt, NULL);
+            if (cPrompt != NULL)
+            {
+                set_prompt(el, cPrompt);
+                (*env)->ReleaseStringUTFChars(env, prompt, cPrompt);
+            }
         }
 
-        else
-        {
-            el_source(el, path);
-            (*env)->ReleaseStringUTFChars(env, javaPath, path);
-        }
+        /* Bind TAB to complete. */
+        el_set(el, EL_BIND, "^I", "ed-complete", NULL);
+
+        parse_packed(env, el, commandArgs, commandArgCounts);
+
+        handle = elPointer2jlong(el);
     }
-}
 
+    if (cPath != NULL)
+        (*env)->ReleaseStringUTFChars(env, initPath, cPath);
+    (*env)->ReleaseStringUTFChars(env, program, cProgram);
+    return handle;
+}
 
 /*
  * Class:  org_clapper_editline_EditLine
@@ -422,7 +737,15 @@ JNIEXPORT jstring JNICALL Java_org_clapper_editline_EditLine_n_1el_1gets
     jstring result = NULL;
     EditLine *el = jlong2elPointer(handle);
     int count;
-    const char *line = el_gets(el, &count);
+    const char *line;
+
+    /*
+      The callbacks invoked during el_gets() use the cached JNIEnv, which
+      is only valid on the thread that created it. The Editline instance
+      is created lazily, possibly on another thread, so refresh it here.
+    */
+    get_data(el)->env = env;
+    line = el_gets(el, &count);
     if (line != NULL)
         result = (*env)->NewStringUTF(env, line);
 
@@ -431,44 +754,18 @@ JNIEXPORT jstring JNICALL Java_org_clapper_editline_EditLine_n_1el_1gets
 
 /*
  * Class:  org_clapper_editline_EditLine
- * Method: static void n_el_bind(long handle, String[] args)
+ * Method: static void n_el_parse_batch(long handle,
+ *                                      byte[] commands,
+ *                                      int[] argCounts)
  */
-JNIEXPORT void JNICALL Java_org_clapper_editline_EditLine_n_1el_1parse
-    (JNIEnv *env, jclass cls, jlong handle, jobjectArray args, jint len)
+JNIEXPORT void JNICALL Java_org_clapper_editline_EditLine_n_1el_1parse_1batch
+    (JNIEnv *env,
+     jclass cls,
+     jlong handle,
+     jbyteArray commands,
+     jintArray argCounts)
 {
-    EditLine *el = jlong2elPointer(handle);
-    const char **buf = (const char **) malloc(len * sizeof(const char *));
-    const char **ptr;
-    int i;
-    jstring js;
-
-    for (i = 0, ptr = buf; i < (int) len; i++, ptr++)
-    {
-        js = (jstring) (*env)->GetObjectArrayElement(env, args, i);
-        const char *cs = (*env)->GetStringUTFChars(env, js, NULL);
-        *ptr = cs;
-    }
-
-    el_parse(el, (int) len, buf);
-
-    for (ptr = buf, i = 0; i < (int) len; i++, ptr++)
-    {
-        js = (jstring) (*env)->GetObjectArrayElement(env, args, i);
-        (*env)->ReleaseStringUTFChars(env, js, *ptr);
-    }
-}
-
-/*
- * Class:  org_clapper_editline_EditLine
- * Method: static int n_history_get_size(long handle)
- */
-JNIEXPORT jint JNICALL Java_org_clapper_editline_EditLine_n_1history_1get_1size
-    (JNIEnv *env, jclass cls, jlong handle)
-{
-    EditLine *el = jlong2elPointer(handle);
-    jEditLineData *data = get_data(el);
-
-    return data->max_history_size;
+    parse_packed(env, jlong2elPointer(handle), commands, argCounts);
 }
 
 /*
@@ -500,11 +797,15 @@ JNIEXPORT void JNICALL Java_org_clapper_editline_EditLine_n_1history_1clear
 
 /*
  * Class:  org_clapper_editline_EditLine
- * Method: static void n_history_append(long handle, String line)
+ * Method: static boolean n_history_append(long handle, String line)
+ *
+ * Returns false if the line wasn't added (e.g., because it duplicates the
+ * newest entry and uniqueness is on).
  */
-JNIEXPORT void JNICALL Java_org_clapper_editline_EditLine_n_1history_1append
+JNIEXPORT jboolean JNICALL Java_org_clapper_editline_EditLine_n_1history_1append
     (JNIEnv *env, jclass cls, jlong handle, jstring line)
 {
+    jboolean added = JNI_FALSE;
     const char *str = (*env)->GetStringUTFChars(env, line, NULL);
     if (str == NULL)
     {
@@ -515,11 +816,24 @@ JNIEXPORT void JNICALL Java_org_clapper_editline_EditLine_n_1history_1append
     {
         EditLine *el = jlong2elPointer(handle);
         HistEvent ev;
-        ev.str = str;
+        const char *newest = NULL;
         jEditLineData *data = get_data(el);
+
+        /*
+          A new entry is a new copy of the line, so the newest entry only
+          changes if the line was actually added.
+        */
+        if (history(data->history, &ev, H_FIRST) != -1)
+            newest = ev.str;
         history(data->history, &ev, H_ENTER, str);
+        if ((history(data->history, &ev, H_FIRST) != -1) &&
+            (ev.str != newest))
+            added = JNI_TRUE;
+
         (*env)->ReleaseStringUTFChars(env, line, str);
     }
+
+    return added;
 }
 
 /*
@@ -540,6 +854,40 @@ JNIEXPORT jstring JNICALL Java_org_clapper_editline_EditLine_n_1history_1current
     return result;
 }
 
+/*
+ * Class:  org_clapper_editline_EditLine
+ * Method: static void n_el_set_suggestions(long handle, ByteBuffer buffer)
+ *
+ * Enables suggestions, using the given direct buffer to exchange the line
+ * and the suggestion with Java, or disables them, if the buffer is null.
+ */
+JNIEXPORT void
+JNICALL Java_org_clapper_editline_EditLine_n_1el_1set_1suggestions
+    (JNIEnv *env, jclass cls, jlong handle, jobject buffer)
+{
+    EditLine *el = jlong2elPointer(handle);
+    jEditLineData *data = get_data(el);
+
+    data->suggestion[0] = '\0';
+    if (buffer == NULL)
+        data->suggestion_buffer = NULL;
+    else
+        data->suggestion_buffer =
+            (unsigned char *) (*env)->GetDirectBufferAddress(env, buffer);
+}
+
+/*
+ * Class:  org_clapper_editline_EditLine
+ * Method: static int n_history_count(long handle)
+ */
+JNIEXPORT jint JNICALL Java_org_clapper_editline_EditLine_n_1history_1count
+    (JNIEnv *env, jclass cls, jlong handle)
+{
+    EditLine *el = jlong2elPointer(handle);
+    jEditLineData *data = get_data(el);
+    return history_count(data->history);
+}
+
 /*
  * Class:  org_clapper_editline_EditLine
  * Method: static String[] n_history_get_all(long handle)
@@ -548,77 +896,63 @@ JNIEXPORT
 jobjectArray JNICALL Java_org_clapper_editline_EditLine_n_1history_1get_1all
     (JNIEnv *env, jclass cls, jlong handle)
 {
-    SimpleStringList *list = NULL;
-
-    int total = 0;
-    int rc;
-    HistEvent ev;
-
-    /*
-      Capture the history elements in a linked-list, so we only have to
-      traverse the list once. For simplicity, insert the entries at the top
-      (like a stack).
-    */
     EditLine *el = jlong2elPointer(handle);
     jEditLineData *data = get_data(el);
-    for (rc = history(data->history, &ev, H_LAST);
-         rc != -1;
-         rc = history(data->history, &ev, H_PREV))
-    {
-        SimpleStringList *entry =
-            (SimpleStringList *) malloc(sizeof(SimpleStringList));
-
-        if (list == NULL)
-        {
-            list = entry;
-            entry->next = NULL;
-        }
-        else
-        {
-            entry->next = list;
-            list = entry;
-        }
-
-        entry->string = strdup(ev.str);
-        total++;
-    }
-
-    /* Allocate an appropriate size array. */
+    return history_range(env, data->history, 0, history_count(data->history));
+}
 
-    jobjectArray result = (jobjectArray)
-        (*env)->NewObjectArray(env, total,
-                               (*env)->FindClass(env, "java/lang/String"),
-                               (*env)->NewStringUTF(env, ""));
+/*
+ * Class:  org_clapper_editline_EditLine
+ * Method: static String[] n_history_get_range(long handle, int from, int count)
+ *
+ * Throws IndexOutOfBoundsException if the range isn't within the history,
+ * so that the caller needn't fetch the history's size separately.
+ */
+JNIEXPORT
+jobjectArray JNICALL Java_org_clapper_editline_EditLine_n_1history_1get_1range
+    (JNIEnv *env, jclass cls, jlong handle, jint from, jint count)
+{
+    EditLine *el = jlong2elPointer(handle);
+    jEditLineData *data = get_data(el);
+    int total = history_count(data->history);
 
-    /*
-      Traverse the list and fill the array backwards, since the list
-      is in reverse order.
-    */
-    int i = total;
-    SimpleStringList *entry = list;
-    SimpleStringList *prev = NULL;
-    while (entry != NULL)
+    if ((from < 0) || (count < 0) || (from > total - count))
     {
-        i--;
-        assert (i >= 0);
-        assert(entry->string != NULL);
-
-        /* Create a Java version of the string. */
-        jstring js = (*env)->NewStringUTF(env, entry->string);
-
-        /* Store it in the Java array. */
-        (*env)->SetObjectArrayElement(env, result, i, js);
-
-        /* Move along. */
-        prev = entry;
-        entry = entry->next;
-
-        /* Free the linked list entry and its string. */
-        free((void *) prev->string);
-        free(prev);
+        char message[80];
+        jclass exc = (*env)->FindClass(env,
+                                       "java/lang/IndexOutOfBoundsException");
+        snprintf(message, sizeof(message), "range %d+%d, size %d",
+                 (int) from, (int) count, total);
+        (*env)->ThrowNew(env, exc, message);
+        return NULL;
     }
 
-    return result;
+    return history_range(env, data->history, (int) from, (int) count);
+}
+
+/*
+ * Class:  org_clapper_editline_EditLine
+ * Method: static String[] n_history_get_recent(long handle, int skip,
+ *                                              int count)
+ *
+ * Like n_history_get_range(), but positioned from the newest entry: gets up
+ * to count entries, oldest first, ending skip entries before the newest.
+ */
+JNIEXPORT
+jobjectArray JNICALL Java_org_clapper_editline_EditLine_n_1history_1get_1recent
+    (JNIEnv *env, jclass cls, jlong handle, jint skip, jint count)
+{
+    EditLine *el = jlong2elPointer(handle);
+    jEditLineData *data = get_data(el);
+    int total = history_count(data->history);
+    int last = total - (int) skip;
+    int first = last - (int) count;
+
+    if (first < 0)
+        first = 0;
+    if (last < first)
+        last = first;
+    return history_range(env, data->history, first, last - first);
 }
 
 /*